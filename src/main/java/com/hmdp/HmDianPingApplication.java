@@ -42,6 +42,7 @@ public class HmDianPingApplication {
 //        thread.start();
 //        thread1.start();
 
+        // 启动后CacheWarmer预热缓存，预热完成（或超时）后才会就绪
         SpringApplication.run(HmDianPingApplication.class, args);
     }
 
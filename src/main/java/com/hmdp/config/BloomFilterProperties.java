@@ -0,0 +1,37 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 描述：id布隆过滤器的配置
+ *
+ * @author txl
+ * @date 2026-10-17 15:30
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom")
+public class BloomFilterProperties {
+
+    /**
+     * 是否开启布隆过滤器
+     */
+    private boolean enabled = true;
+
+    /**
+     * 每个过滤器预计的元素个数
+     */
+    private long expectedInsertions = 1000000L;
+
+    /**
+     * 误判率
+     */
+    private double fpp = 0.001;
+
+    /**
+     * 从redis同步位图到本地的间隔：兜底其他节点新增的id
+     */
+    private long refreshMillis = 60000L;
+}
@@ -0,0 +1,47 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 描述：缓存重建线程池的配置
+ *
+ * @author txl
+ * @date 2026-10-17 17:10
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.rebuild")
+public class CacheRebuildProperties {
+
+    /**
+     * 重建线程数
+     */
+    private int threads = 10;
+
+    /**
+     * 等待队列的容量：满了之后新的重建任务直接丢弃，继续返回旧数据，下次访问再提交
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * key热度衰减的间隔：每个间隔热度减半
+     */
+    private long hotnessDecayMillis = 60000L;
+
+    /**
+     * 逻辑过期的提前刷新系数（XFetch的beta）：越大越早刷新，小于等于0关闭提前刷新
+     */
+    private double earlyRefreshBeta = 1.0;
+
+    /**
+     * 不知道重建耗时的缓存（比如老数据）按这个耗时计算提前刷新的概率，毫秒
+     */
+    private long defaultRebuildMillis = 10L;
+
+    /**
+     * 逻辑过期时间的随机抖动比例：实际过期时间 = 过期时间 * (1 + [0, 比例))
+     */
+    private double expireJitterRatio = 0.1;
+}
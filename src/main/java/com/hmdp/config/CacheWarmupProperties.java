@@ -0,0 +1,34 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 描述：启动时缓存预热的配置
+ *
+ * @author txl
+ * @date 2026-10-18 14:20
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.warmup")
+public class CacheWarmupProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 每批从数据库读取、用一次pipeline写入redis的商户个数
+     */
+    private int batchSize = 500;
+
+    /**
+     * 同时写redis的批次数
+     */
+    private int concurrency = 4;
+
+    /**
+     * 预热的时间预算：超过后停止预热，开始接收流量，没预热到的key按正常的缓存未命中处理
+     */
+    private long timeBudgetMillis = 30000L;
+}
@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 描述：热点key探测的配置
+ *
+ * @author txl
+ * @date 2026-10-18 16:05
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.hotkey")
+public class HotKeyProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * 采样比例：(0, 1]，采样到的访问按 1 / 比例 计数
+     */
+    private double sampleRatio = 0.1;
+
+    /**
+     * QPS达到多少算热点key
+     */
+    private long qpsThreshold = 500L;
+
+    /**
+     * 计数衰减的间隔：每个间隔所有计数减半
+     */
+    private long decayMillis = 1000L;
+
+    /**
+     * 热点key在本地固定缓存的时间：要短，数据最多旧这么久（失效消息照样会删除）
+     */
+    private long pinTtlMillis = 2000L;
+
+    /**
+     * 最多同时有多少个热点key
+     */
+    private int maxHotKeys = 100;
+
+    /**
+     * count-min sketch的宽度（会取到2的幂）和行数
+     */
+    private int sketchWidth = 8192;
+
+    private int sketchDepth = 4;
+}
@@ -0,0 +1,46 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 描述：全局id生成器的配置
+ *
+ * @author txl
+ * @date 2026-10-19 09:30
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdProperties {
+
+    /**
+     * redis：每个id一次INCR；segment：一次INCRBY取一段序列号在本地发；snowflake：完全在本地生成，只有worker id从redis租用
+     */
+    private Mode mode = Mode.REDIS;
+
+    /**
+     * 号段模式下一次取多少个序列号
+     */
+    private long segmentStep = 1000L;
+
+    /**
+     * 号段剩余多少比例时异步预取下一段
+     */
+    private double prefetchRatio = 0.2;
+
+    /**
+     * snowflake模式下worker id的租约时长：后台每1/3租约续期一次，redis不可用的时间不超过租约就不影响发号
+     */
+    private long workerLeaseMillis = 300000L;
+
+    /**
+     * snowflake模式下允许的时钟回拨：回拨期间沿用上一秒的序列号，序列号用完时还回拨超过这个值就报错
+     */
+    private long maxBackwardMillis = 5000L;
+
+    public enum Mode {
+        REDIS, SEGMENT, SNOWFLAKE
+    }
+}
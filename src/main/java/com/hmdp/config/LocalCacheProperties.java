@@ -0,0 +1,44 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 描述：一级缓存（进程内缓存）的配置
+ *
+ *  specs的key是缓存key的前缀，value是Caffeine的配置串，例如：
+ *      "[cache:shop:]": maximumSize=1000,expireAfterWrite=60s
+ *  查询时按最长前缀匹配，没有配置的前缀不走一级缓存。
+ *
+ * @author txl
+ * @date 2026-10-17 10:12
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.local")
+public class LocalCacheProperties {
+
+    /**
+     * 是否开启一级缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * key前缀 -> Caffeine配置串
+     */
+    private Map<String, String> specs = new LinkedHashMap<>();
+
+    /**
+     * 失效消息攒批发送的间隔
+     */
+    private long invalidateTickMillis = 50L;
+
+    /**
+     * 检查是否漏收失效消息的间隔：redis中的序号比本节点的大，且超过这个时间还没收到消息，就清空一级缓存
+     */
+    private long invalidateCheckMillis = 1000L;
+}
@@ -2,6 +2,8 @@ package com.hmdp.config;
 
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.interceptor.SeckillRateLimitInterceptor;
+import com.hmdp.utils.seckill.SeckillRateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -20,6 +22,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private SeckillRateLimiter seckillRateLimiter;
+
     /**
      * 注册一个拦截器
      * @param registry 拦截器的注册器
@@ -34,11 +39,17 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/shop-type/**",
                         "/voucher/**",
+                        "/cache/warmup",
                         "/upload/**" // upload按理说不应该放行，这里是为了方便测试
                 ).order(1);
 
         // 拦截器2：拦截所有请求
         // order越大，优先级越高，先执行
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+
+        // 拦截器3：秒杀接口限流，登录拦截器之后执行，才能拿到用户
+        registry.addInterceptor(new SeckillRateLimitInterceptor(seckillRateLimiter))
+                .addPathPatterns("/voucher-order/seckill*/*", "/voucher-order/seckill-bundle")
+                .order(2);
     }
 }
@@ -0,0 +1,53 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.cache.codec.CacheCodec;
+import com.hmdp.utils.cache.codec.CompatibleCacheCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 描述：redis相关的配置
+ *
+ * @author txl
+ * @date 2026-10-17 14:05
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 发布订阅的监听容器：断线后会自动重连并重新订阅
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * 缓存值按byte[]存取的RedisTemplate：key还是字符串，value不做任何序列化，由CacheCodec编解码
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.setHashKeySerializer(RedisSerializer.string());
+        template.setHashValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    /**
+     * 缓存值的编解码：binary或者json，两种格式都能读
+     */
+    @Bean
+    public CacheCodec cacheCodec(@Value("${hmdp.cache.codec:binary}") String codec) {
+        return new CompatibleCacheCodec("binary".equalsIgnoreCase(codec));
+    }
+}
@@ -0,0 +1,289 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 描述：秒杀的配置
+ *
+ * @author txl
+ * @date 2026-10-18 19:00
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 新建秒杀券时库存分成几个桶：每个桶一个key，分散到不同的slot上。库存比桶数少时按库存数分
+     */
+    private int stockBuckets = 8;
+
+    /**
+     * 售罄标记的有效期：过期后放一个请求去redis确认
+     */
+    private long soldOutTtlMillis = 5000L;
+
+    /**
+     * 新建秒杀券时一人一单怎么记录：bitmap（默认，稀疏的大id自动用set）或者set
+     */
+    private PurchaseDedup purchaseDedup = PurchaseDedup.BITMAP;
+
+    /**
+     * 位图中的最大偏移量：一个桶的位图最多 bitmapMaxOffset / 8 个字节，超过的用户id写到set
+     */
+    private long bitmapMaxOffset = 1L << 27;
+
+    /**
+     * 订单消息的消费者
+     */
+    private Consumer consumer = new Consumer();
+
+    /**
+     * seckillVoucher3的环形缓冲区
+     */
+    private RingBuffer ringBuffer = new RingBuffer();
+
+    /**
+     * 异步秒杀接口等redis结果的超时时间
+     */
+    private long asyncTimeoutMillis = 3000L;
+
+    /**
+     * 组合券一次最多包含多少个优惠券
+     */
+    private int bundleMaxSize = 10;
+
+    /**
+     * 秒杀接口的限流
+     */
+    private RateLimit rateLimit = new RateLimit();
+
+    /**
+     * 订单状态
+     */
+    private OrderStatus orderStatus = new OrderStatus();
+
+    /**
+     * redis和mysql的库存对账
+     */
+    private Reconcile reconcile = new Reconcile();
+
+    /**
+     * 秒杀活动的预热和归档
+     */
+    private Campaign campaign = new Campaign();
+
+    public enum PurchaseDedup {
+        SET, BITMAP
+    }
+
+    @Data
+    public static class Consumer {
+
+        /**
+         * 一批最多处理多少条消息
+         */
+        private int batchSize = 100;
+
+        /**
+         * 读到第一条消息后最多再等多久凑满一批
+         */
+        private long maxWaitMillis = 50L;
+
+        /**
+         * 没有消息时XREADGROUP阻塞的时间
+         */
+        private long blockMillis = 2000L;
+
+        /**
+         * 一个消费者要读多个stream时（分桶的stream在不同的slot，不能一次阻塞读），一轮都没有消息后休眠多久再读
+         */
+        private long pollMillis = 10L;
+
+        /**
+         * 多久读一次stream.orders:index，发现新的分桶stream、清理已经归档并且消费完的stream
+         */
+        private long streamRefreshMillis = 1000L;
+
+        /**
+         * 每个节点的消费者个数：每个消费者一个线程，消费者名字是 pid@host-序号，在组内唯一
+         */
+        private int threads = 2;
+
+        /**
+         * pending-list中的消息空闲多久没有ACK就认为消费者挂了或者处理失败了，转给本节点重新处理
+         */
+        private long claimIdleMillis = 60000L;
+
+        /**
+         * 多久扫描一次pending-list
+         */
+        private long claimIntervalMillis = 10000L;
+
+        /**
+         * 一次最多扫描多少条pending消息
+         */
+        private int claimBatchSize = 100;
+
+        /**
+         * 投递次数达到这个值还没有ACK的消息转到死信stream
+         */
+        private int maxDeliveries = 5;
+    }
+
+    @Data
+    public static class RingBuffer {
+
+        /**
+         * 槽位个数，向上取2的幂
+         */
+        private int capacity = 65536;
+
+        /**
+         * 消费者一批最多处理多少个订单
+         */
+        private int batchSize = 100;
+    }
+
+    @Data
+    public static class RateLimit {
+
+        private boolean enabled = true;
+
+        /**
+         * 本节点每个优惠券每秒放行多少个请求，允许一秒的突发
+         */
+        private long voucherPermitsPerSecond = 2000L;
+
+        /**
+         * 单独配置的优惠券：优惠券id -> 每秒放行多少个请求
+         */
+        private Map<Long, Long> voucherPermits = new HashMap<>();
+
+        /**
+         * 每个用户在窗口内最多几个秒杀请求，所有节点共享
+         */
+        private int userLimit = 5;
+
+        /**
+         * 用户限流的滑动窗口长度
+         */
+        private long userWindowMillis = 1000L;
+
+        public long permitsOf(Long voucherId) {
+            Long permits = voucherPermits.get(voucherId);
+            return permits == null ? voucherPermitsPerSecond : permits;
+        }
+    }
+
+    @Data
+    public static class OrderStatus {
+
+        /**
+         * redis的hash-max-ziplist-entries：订单id按这个数（向下取2的幂）分段，每段一个hash，元素个数不会超过它，一定是ziplist编码
+         */
+        private int hashMaxZiplistEntries = 128;
+
+        /**
+         * 状态保留多久，也是PENDING的最长时间：超过这个时间还没有记录的订单是UNKNOWN
+         */
+        private long ttlSeconds = 86400L;
+
+        /**
+         * 长轮询多久查一次redis
+         */
+        private long pollIntervalMillis = 200L;
+
+        /**
+         * 长轮询最多等多久
+         */
+        private long maxPollMillis = 30000L;
+
+        /**
+         * 一次最多查多少个订单
+         */
+        private int maxQueryIds = 50;
+    }
+
+    @Data
+    public static class Reconcile {
+
+        private boolean enabled = true;
+
+        /**
+         * 多久对账一次
+         */
+        private long intervalMillis = 60000L;
+
+        /**
+         * 一批读多少个秒杀券
+         */
+        private int batchSize = 100;
+
+        /**
+         * 是否以数据库为准修正redis库存：连续两次对账的结果一样才修正
+         */
+        private boolean repair = false;
+
+        /**
+         * 每批之间休眠多久
+         */
+        private long throttleMillis = 50L;
+
+        /**
+         * 结束多少分钟内的秒杀券还要对账：等消费者把剩下的消息处理完
+         */
+        private long activeGraceMinutes = 30L;
+
+        /**
+         * 开始前多少分钟的秒杀券就开始对账：库存已经预热到redis了
+         */
+        private long activeLeadMinutes = 10L;
+
+        /**
+         * 每个节点多久上报一次环形缓冲区中在途的订单数：要比intervalMillis小得多
+         */
+        private long heartbeatMillis = 1000L;
+    }
+
+    @Data
+    public static class Campaign {
+
+        private boolean enabled = true;
+
+        /**
+         * 多久扫描一次
+         */
+        private long intervalMillis = 30000L;
+
+        /**
+         * 一批读多少个秒杀券
+         */
+        private int batchSize = 100;
+
+        /**
+         * 开始前多少分钟把库存和时间窗口预热到redis
+         */
+        private long preloadLeadMinutes = 10L;
+
+        /**
+         * 结束多少分钟后归档：等消费者处理完剩下的消息、对账做完最后几次
+         */
+        private long archiveDelayMinutes = 60L;
+
+        /**
+         * 归档时往前找多少天内结束的秒杀券，也是活动key的兜底过期时间
+         */
+        private long archiveLookbackDays = 7L;
+
+        /**
+         * 归档的汇总保留多少天
+         */
+        private long archiveTtlDays = 30L;
+    }
+}
@@ -15,15 +15,57 @@ public class RedisConstants {
     // 商户
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // 商户的逻辑过期时间：秒
+    public static final Long CACHE_SHOP_LOGIC_TTL = 10L;
 
     // 商户类型
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
 
+    // 用户：只缓存UserDTO，不缓存手机号和密码
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    // 一级缓存失效消息
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_INVALIDATE_SEQ_KEY = "cache:invalidate:seq";
+
+    // id布隆过滤器：redis中的位图
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_BLOG_KEY = "bloom:blog";
+    public static final String BLOOM_VOUCHER_KEY = "bloom:voucher";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 一人一单的位图：seckill:order:bm:{voucherId:i}
+    public static final String SECKILL_ORDER_BITMAP_KEY = "seckill:order:bm:";
+    // 秒杀券的库存桶数：没有这个key的是没分桶的老数据
+    public static final String SECKILL_BUCKETS_KEY = "seckill:buckets:";
+    // 秒杀活动的时间窗口：seckill:window:{voucherId:i}，值是 开始毫秒:结束毫秒
+    public static final String SECKILL_WINDOW_KEY = "seckill:window:";
+    // 结束的秒杀活动归档的汇总
+    public static final String SECKILL_ARCHIVE_KEY = "seckill:archive:";
+    // 售罄标记的发布订阅频道
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    // 秒杀订单的消息队列和消费者组
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "group1";
+    // 分桶的消息队列stream.orders:{voucherId:i}的登记：stream的key -> 优惠券id
+    public static final String SECKILL_ORDER_STREAM_INDEX_KEY = "stream.orders:index";
+    // 投递多次仍然处理失败的订单消息
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dlq";
+    // 秒杀订单的状态：seckill:order:status:{订单id >>> 7}
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order:status:";
+    // 各个节点环形缓冲区中在途的订单数：节点名 -> 在途数:上报时间
+    public static final String SECKILL_RING_BUFFER_IN_FLIGHT_KEY = "seckill:ringbuffer:inflight";
+    // 秒杀接口的用户限流
+    public static final String SECKILL_USER_LIMIT_KEY = "seckill:limit:user:";
+    // snowflake模式的worker id租约：id:worker:{0~1023}
+    public static final String ID_WORKER_KEY = "id:worker:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -16,12 +16,18 @@ public class RespConstant {
 
     public static final String MESSAGE_MISSING_SHOPID = "店铺id不能为空";
 
+    public static final String MESSAGE_VOUCHER_NO_EXIST = "优惠券不存在";
+
     public static final String MESSAGE_SAVE_BLOG_ERROR = "新增博客失败";
 
     public static final String MESSAGE_SYSTEM_ERROR = "系统异常";
 
+    public static final String MESSAGE_TOO_MANY_REQUESTS = "请求太频繁，请稍后重试";
+
     public static final String CODE_UNAUTHORIZED = "403";
 
     public static final String CODE_SYSTEM_ERROR = "501";
 
+    public static final String CODE_TOO_MANY_REQUESTS = "429";
+
 }
@@ -0,0 +1,71 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.cache.CacheRebuildScheduler;
+import com.hmdp.utils.cache.CacheWarmer;
+import com.hmdp.utils.cache.HotKeyDetector;
+import com.hmdp.utils.cache.LocalCacheManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 描述：缓存的监控信息
+ *
+ * @author txl
+ * @date 2026-10-17 10:45
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private LocalCacheManager localCacheManager;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 一级缓存各个前缀的命中、未命中、淘汰次数
+     * @return
+     */
+    @GetMapping("/stats")
+    public Result localStats() {
+        return Result.ok(localCacheManager.stats());
+    }
+
+    /**
+     * 缓存重建的队列长度、重建耗时等指标
+     * @return
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(cacheRebuildScheduler.stats());
+    }
+
+    /**
+     * 启动预热的进度和就绪状态：ACCEPTING_TRAFFIC之后才能接收流量
+     * @return
+     */
+    @GetMapping("/warmup")
+    public Result warmupStats() {
+        return Result.ok(cacheWarmer.stats());
+    }
+
+    /**
+     * 当前的热点key和估计的QPS
+     * @return
+     */
+    @GetMapping("/hotkeys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+}
@@ -1,13 +1,28 @@
 package com.hmdp.controller;
 
 
+import com.hmdp.constant.RespConstant;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.utils.seckill.OrderRingBuffer;
+import com.hmdp.utils.seckill.OrderStatusStore;
+import com.hmdp.utils.seckill.SeckillCampaignScheduler;
+import com.hmdp.utils.seckill.SeckillRateLimiter;
+import com.hmdp.utils.seckill.SeckillStockReconciler;
+import com.hmdp.utils.seckill.VoucherOrderConsumer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -17,6 +32,7 @@ import org.springframework.web.bind.annotation.RestController;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
@@ -24,6 +40,27 @@ public class VoucherOrderController {
     @Autowired
     private IVoucherOrderService voucherOrderService;
 
+    @Autowired
+    private VoucherOrderConsumer voucherOrderConsumer;
+
+    @Autowired
+    private OrderRingBuffer orderRingBuffer;
+
+    @Autowired
+    private SeckillRateLimiter seckillRateLimiter;
+
+    @Autowired
+    private SeckillStockReconciler seckillStockReconciler;
+
+    @Autowired
+    private SeckillCampaignScheduler seckillCampaignScheduler;
+
+    @Autowired
+    private OrderStatusStore orderStatusStore;
+
+    @Autowired
+    private SeckillProperties seckillProperties;
+
     /**
      * 单体服务的互斥锁：实现一人只能秒杀一单，然后生成订单，乐观锁实现库存扣减。
      * @param voucherId
@@ -73,4 +110,120 @@ public class VoucherOrderController {
     public Result seckillVoucher4(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher4(voucherId);
     }
+
+    /**
+     * 异步秒杀：等待redis返回期间不占用tomcat线程，超时返回系统繁忙（订单可能已经下了，重试会返回不能重复下单）
+     * @param voucherId
+     * @return
+     */
+    @PostMapping("seckill-async/{id}")
+    public DeferredResult<Result> seckillVoucherAsync(@PathVariable("id") Long voucherId) {
+        DeferredResult<Result> result = new DeferredResult<>(seckillProperties.getAsyncTimeoutMillis(),
+                Result.fail("系统繁忙，请稍后重试"));
+        voucherOrderService.seckillVoucherAsync(voucherId).whenComplete((r, e) -> {
+            if (e != null) {
+                log.error("异步秒杀失败，voucherId = {}", voucherId, e);
+                result.setResult(Result.fail(RespConstant.MESSAGE_SYSTEM_ERROR));
+                return;
+            }
+            result.setResult(r);
+        });
+        return result;
+    }
+
+    /**
+     * 组合券秒杀：所有优惠券要么都下单成功，要么都不下单
+     * @param voucherIds 优惠券id，逗号分隔
+     * @return 和voucherIds一一对应的订单id
+     */
+    @PostMapping("seckill-bundle")
+    public Result seckillBundle(@RequestParam("ids") List<Long> voucherIds) {
+        return voucherOrderService.seckillBundle(voucherIds);
+    }
+
+    /**
+     * 批量查询秒杀订单的状态：PENDING、CREATED、FAILED、UNKNOWN，只查redis
+     * @param ids 订单id，逗号分隔
+     * @return
+     */
+    @GetMapping("status")
+    public Result queryStatus(@RequestParam("ids") List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > seckillProperties.getOrderStatus().getMaxQueryIds()) {
+            return Result.fail("订单个数超出范围");
+        }
+        return Result.ok(orderStatusStore.query(ids));
+    }
+
+    /**
+     * 长轮询秒杀订单的状态：所有订单都不是PENDING或者超时才返回，等待期间不占用tomcat线程
+     * @param ids 订单id，逗号分隔
+     * @param timeout 最多等多久，毫秒
+     * @return
+     */
+    @GetMapping("status/poll")
+    public DeferredResult<Result> pollStatus(@RequestParam("ids") List<Long> ids,
+                                             @RequestParam(value = "timeout", defaultValue = "10000") Long timeout) {
+        if (ids.isEmpty() || ids.size() > seckillProperties.getOrderStatus().getMaxQueryIds()) {
+            DeferredResult<Result> result = new DeferredResult<>();
+            result.setResult(Result.fail("订单个数超出范围"));
+            return result;
+        }
+        return orderStatusStore.poll(ids, timeout);
+    }
+
+    /**
+     * 订单消息的消费指标：批次、接管、死信的个数，pending和积压情况
+     * @return
+     */
+    @GetMapping("consumer")
+    public Result consumerStats() {
+        return Result.ok(voucherOrderConsumer.stats());
+    }
+
+    /**
+     * seckill3的环形缓冲区：容量、占用、拒绝的次数
+     * @return
+     */
+    @GetMapping("ring-buffer")
+    public Result ringBufferStats() {
+        return Result.ok(orderRingBuffer.stats());
+    }
+
+    /**
+     * 秒杀接口的限流：放行和拒绝的次数，每个优惠券的令牌桶
+     * @return
+     */
+    @GetMapping("rate-limit")
+    public Result rateLimitStats() {
+        return Result.ok(seckillRateLimiter.stats());
+    }
+
+    /**
+     * 最近一次redis和mysql的库存对账报告
+     * @return
+     */
+    @GetMapping("reconcile")
+    public Result reconcileReport() {
+        return Result.ok(seckillStockReconciler.lastReport());
+    }
+
+    /**
+     * 立即对账一次
+     * @param repair 是否修正redis库存，连续两次对账的结果一样才修正
+     * @return
+     */
+    @PostMapping("reconcile")
+    public Result reconcile(@RequestParam(value = "repair", defaultValue = "false") Boolean repair) throws InterruptedException {
+        Map<String, Object> report = seckillStockReconciler.reconcile(repair);
+        return report == null ? Result.fail("其他节点正在对账") : Result.ok(report);
+    }
+
+    /**
+     * 秒杀活动的预热和归档：预热、归档的个数，最近一次执行的时间
+     * @return
+     */
+    @GetMapping("campaign")
+    public Result campaignStats() {
+        return Result.ok(seckillCampaignScheduler.stats());
+    }
 }
@@ -18,5 +18,10 @@ public class RedisData {
      */
     private LocalDateTime expireTime;
 
+    /**
+     * 上次重建耗时（毫秒）：用来计算提前刷新的概率
+     */
+    private Long rebuildMillis;
+
     private Object data;
 }
@@ -7,7 +7,7 @@ import com.hmdp.constant.ReqConstant;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
@@ -24,7 +24,7 @@ import java.util.Map;
  * @author txl
  * @date 2022-07-23 23:44
  */
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
@@ -80,4 +80,10 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         // 移除用户：避免内存泄漏
         UserHolder.removeUser();
     }
+
+    // 异步请求（长轮询）：当前线程不会走afterCompletion，在这里移除，否则下一个没有token的请求会拿到这个用户
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
 }
@@ -0,0 +1,66 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.constant.RespConstant;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.seckill.SeckillRateLimiter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 描述：秒杀接口的限流拦截器，在登录拦截器之后执行，被限流的请求直接返回429
+ *
+ * @author txl
+ * @date 2026-10-19 16:00
+ */
+public class SeckillRateLimitInterceptor implements HandlerInterceptor {
+
+    private final SeckillRateLimiter seckillRateLimiter;
+
+    public SeckillRateLimitInterceptor(SeckillRateLimiter seckillRateLimiter) {
+        this.seckillRateLimiter = seckillRateLimiter;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 0.异步接口（seckill-async）拿到结果后会再分派一次，再走一遍拦截器：第一次已经限流过了，
+        // 这时redis已经扣了库存，再拒绝会把订单id丢掉
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+
+        // 1.路径中的优惠券id：/voucher-order/seckill/{id}
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        Long voucherId = null;
+        if (variables != null && variables.get("id") != null) {
+            try {
+                voucherId = Long.valueOf(variables.get("id"));
+            } catch (NumberFormatException e) {
+                // 交给controller去报错
+                return true;
+            }
+        }
+        UserDTO user = UserHolder.getUser();
+
+        // 2.限流
+        if (seckillRateLimiter.tryAcquire(voucherId, user == null ? null : user.getId()) == SeckillRateLimiter.ADMITTED) {
+            return true;
+        }
+
+        // 3.被限流：429
+        response.setStatus(Integer.parseInt(RespConstant.CODE_TOO_MANY_REQUESTS));
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(JSONUtil.toJsonStr(Result.fail(RespConstant.CODE_TOO_MANY_REQUESTS,
+                RespConstant.MESSAGE_TOO_MANY_REQUESTS)).getBytes(StandardCharsets.UTF_8));
+        return false;
+    }
+}
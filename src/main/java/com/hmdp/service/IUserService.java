@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -29,4 +31,10 @@ public interface IUserService extends IService<User> {
 
     Result signCount();
 
+    /**
+     * 批量查询用户信息，走缓存
+     * @return 和ids的顺序一一对应，不存在的用户是null
+     */
+    List<UserDTO> queryUserDTOs(List<Long> ids);
+
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -27,4 +30,22 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     void createVoucherOrder1(VoucherOrder voucherOrder);
 
     Result seckillVoucher4(Long voucherId);
+
+    /**
+     * seckillVoucher4的异步版本：redis的往返不占用调用线程
+     * @return 在lettuce的IO线程上完成
+     */
+    CompletableFuture<Result> seckillVoucherAsync(Long voucherId);
+
+    /**
+     * 组合券秒杀：多个优惠券一次脚本调用，要么全部下单成功，要么都不下单
+     * @return 成功时是和voucherIds一一对应的订单id
+     */
+    Result seckillBundle(List<Long> voucherIds);
+
+    /**
+     * 批量持久化订单：一个事务
+     * @return 已经在数据库中的订单id（包括之前就持久化过的），不在其中的是重复下单被唯一索引跳过的
+     */
+    List<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
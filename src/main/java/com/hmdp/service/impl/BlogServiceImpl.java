@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -13,21 +12,24 @@ import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.cache.IdBloomFilter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -51,9 +53,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
     @Override
     public Result queryBlogById(Long id) {
 
+        // 0.布隆过滤器判断不存在的id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_BLOG_KEY, id)) {
+            return Result.fail("笔记不存在！");
+        }
+
         // 1.查询blog
         Blog blog = getById(id);
         if (null == blog) {
@@ -61,7 +71,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         // 2.查询写这个blog的用户，及是否被当前用户点赞过
-        queryBlogUser(blog);
+        queryBlogUsers(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
@@ -75,8 +85,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 获取当前页数据
         List<Blog> records = page.getRecords();
 
-        // 查询用户：forEach遍历的过程中，调用queryBlogUser方法，且参数是每次遍历的元素
-        records.forEach(this::queryBlogUser);
+        // 批量查询用户
+        queryBlogUsers(records);
         return Result.ok(records);
     }
 
@@ -126,19 +136,26 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 2.解析出其中的用户id：获取的ids的顺序是正确的
         List<Long> ids = top5.stream().map(userId -> Long.valueOf(userId)).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
 
-        // 3.根据用户id查询用户
-        // 注意：ids的顺序是对的，但是查询结果的排序和in的顺序是不一致的。所以我们这里指定下按照ids排序 order by field(id, id1, id2, id3, ...)
-        // List<UserDTO> userDTOS = userService.listByIds(ids)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 3.根据用户id批量查询用户：走缓存，结果和ids的顺序一致，不用再order by field(id, id1, id2, id3, ...)
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids).stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         return Result.ok(userDTOS);
     }
 
+    /**
+     * 新增博客：同时把id加到布隆过滤器中
+     */
+    @Override
+    public boolean save(Blog blog) {
+        boolean success = super.save(blog);
+        if (success) {
+            idBloomFilter.add(RedisConstants.BLOOM_BLOG_KEY, blog.getId());
+        }
+        return success;
+    }
+
     @Override
     public Result saveBlog(Blog blog) {
 
@@ -223,10 +240,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 5.根据id查询blog
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-        }
+        // 5.1.批量查询blog有关的用户
+        queryBlogUsers(blogs);
 
         // 6.封装并返回
         ScrollResult result = new ScrollResult();
@@ -236,20 +251,40 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(result);
     }
 
-    private void queryBlogUser(Blog blog) {
-        User user = userService.getById(blog.getUserId());
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 查询blog的作者，及是否被当前用户点赞过
+     *  原来每个blog查一次用户、查一次点赞，一页N个blog就是2N次往返。
+     *  现在用户一次批量查询（MGET + selectBatchIds），点赞用一次pipeline查ZSCORE。
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = userService.queryUserDTOs(userIds);
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if (user != null) {
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
 
-        // 判断该blog是否已被当前用户点赞过
+        // 判断blog是否已被当前用户点赞过
         UserDTO currentUser = UserHolder.getUser();
         if (null == currentUser) {
             // 用户未登录，无需查询当前用户是否点赞过
             return;
         }
-        Double score = stringRedisTemplate.opsForZSet().score(
-                RedisConstants.BLOG_LIKED_KEY + blog.getId(),
-                currentUser.getId().toString());
-        blog.setIsLike(score != null);
+        byte[] member = currentUser.getId().toString().getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                connection.zScore((RedisConstants.BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 }
@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollectionUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -17,6 +16,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -96,11 +96,9 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         // 4.将交集中的userId解析成Long
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
 
-        // 5.查询出用户
-        // List<User> users = userService.listByIds(ids);
-        List<UserDTO> userDTOS = userService.query().in("id", ids).list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 5.批量查询出用户：走缓存
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids).stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         return Result.ok(userDTOS);
     }
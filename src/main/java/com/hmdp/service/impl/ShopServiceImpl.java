@@ -1,20 +1,17 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.constant.RedisConstants;
 import com.hmdp.constant.RespConstant;
 import com.hmdp.constant.SystemConstants;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.RedisData;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.cache.IdBloomFilter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.geo.*;
@@ -23,7 +20,6 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -49,27 +45,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-    /**
-     * 用setnx模拟互斥锁：如果多个线程都赖执行setnx，那么只有一个线程会返回成功。返回成功就等价于抢到锁。
-     * 加上过期时间，避免出现系统异常导致没有释放锁。
-     * @param key
-     * @return
-     */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 1000, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    // 解锁
-    private void  unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
+    @Autowired
+    private IdBloomFilter idBloomFilter;
 
     @Override
     public Result queryById(Long id) {
 
+        // 0.布隆过滤器判断不存在的id一定不存在：直接返回，不查redis和数据库
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_SHOP_KEY, id)) {
+            return Result.fail(RespConstant.MESSAGE_SHOP_NO_EXIST);
+        }
+
         // 1.1.解决缓存穿透的逻辑
         // queryWithPassThrough(id);
 
@@ -90,7 +76,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         // 2.3.封装的redis工具类中：逻辑过期解决缓存击穿：先向redis中存入一些带有逻辑过期属性的热点数据
         Shop shop = cacheClient.queryWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
-                (shopId) -> getById(shopId), 10L, TimeUnit.SECONDS);
+                (shopId) -> getById(shopId), RedisConstants.CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
 
         if (shop == null) {
             return Result.fail(RespConstant.MESSAGE_SHOP_NO_EXIST);
@@ -100,239 +86,52 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     /**
      * 逻辑过期解决缓存击穿：没有TTL，但有一个逻辑过期属性
+     *  原来的写法直接用StringRedisTemplate + hutool JSON读写cache:shop:*，现在这些key存的是CacheCodec编码的byte[]，
+     *  JSON解析不了，所以和queryWithMutex一样交给CacheClient：过期时返回旧数据，由共享的重建调度器异步重建。
      * 测试：
-     *  我们先提前向redis中放一个快过期的数据，然后redis中的是过期数据，且过期数据和数据库中的数据不一致。
+     *  我们先提前向redis中放一个快过期的数据（saveShop2Redis），然后redis中的是过期数据，且过期数据和数据库中的数据不一致。
      *  这个时候多线程访问的话会出现短期的数据不一致的情况，直到一个线程将redis更新好。
      * @param id
      * @return
      */
     public Shop queryWithLogicExpire(Long id) {
-        // 1.先从redis查询商户：这里演示一下用string类型存储shop对象
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2.空值都意味着数据库不存在该商户
-        if ("".equals(shopJson)) {
-            return null;
-        }
-
-        /**
-         * 如果是null，我这里还是要用一个异步线程去重建缓存的话，但是我要返回一个Shop，那我怎么拿到异步线程的结果呢？Callable
-         *
-         * 或者说按照课程的逻辑：如果是null直接返回null。因为假设的是这样的场景，热点数据先调用某个方法（saveShop2Redis）缓存到redis中了，
-         * 而且因为只有逻辑过期，没有设置TTL，所以热点数据肯定一直在redis中的。那么如果redis查询是null意味着还没有调用saveShop2Redis缓存到redis中了，
-         * 即还没有开始这个活动。
-         */
-        if (null == shopJson) {
-            // 缓存重建：当初始redis中的数据是null时，会有多个线程走到这个方法，但是只有一个线程能抢到锁，所以其他线程还是会返回null。
-            // 所以正常情况下先让redis有数据来测试：
-            return rebuildShopCache(id, key);
-        }
-
-        // 3.命中判断过期时间
-        RedisData shopRedisData = JSONUtil.toBean(shopJson, RedisData.class);
-        // Shop shop = BeanUtil.copyProperties(shopRedisData.getData(), Shop.class);
-        // 体会一下这种写法：这里因为shopRedisData.getData()得到的是Object，但实际上是经过反序列化的JSONObject。
-        JSONObject data = (JSONObject) shopRedisData.getData();
-        Shop shop = JSONUtil.toBean(data, Shop.class);
-        if (shopRedisData.getExpireTime().isAfter(LocalDateTime.now())) {
-            // 3.1.没过期
-            return shop;
-        }
-
-        // 可能在当前线程刚走到这里判断了缓存数据已过期后，有一个线程执行完了缓存重建逻辑，并释放了锁，缓存有数据了
-        // 当前线程能获取锁但是此时不需要再创建缓存了，所以在获取到锁时还要做一次校验重校，即双重校验
-
-        // 4.缓存的数据已过期
-        // 4.1.成功获取锁：做缓存重建
-        if (tryLock(RedisConstants.LOCK_SHOP_KEY)) {
-            try {
-                // 4.2.获取到锁后进行双重校验
-                RedisData redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(key), RedisData.class);
-                if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-                    unlock(RedisConstants.LOCK_SHOP_KEY);
-                    return JSONUtil.toBean((JSONObject) shopRedisData.getData(), Shop.class);
-                }
-            } catch (Exception e) {
-                unlock(RedisConstants.LOCK_SHOP_KEY);
-                throw new RuntimeException(e);
-            }
-
-            // 4.2.开启异步线程做缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    log.debug("Thread = {}, 开始构建shop缓存，id = {}", Thread.currentThread().getName(), 1);
-                    Shop shopFromDB = getById(id);
-                    if (shopFromDB == null) {
-                        // 缓存和数据库都不存在该数据：缓存空值避免缓存穿透
-                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    } else {
-                        Thread.sleep(200L);
-                        RedisData newRedisData = new RedisData();
-                        newRedisData.setData(shopFromDB);
-                        newRedisData.setExpireTime(LocalDateTime.now().plusSeconds(10L));
-                        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(newRedisData));
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally{
-                    unlock(RedisConstants.LOCK_SHOP_KEY);
-                }
-            });
-
-        }
-
-        // 5.过期且没获取到锁：说明有其他线程获得了锁，去开启了异步线程做缓存重建。所以当前线程返回旧数据
-        return shop;
-    }
-
-    // 当初始redis中的数据是null时，会有多个线程走到这个方法，但是只有一个线程能抢到锁，所以其他线程还是会返回null
-    private Shop rebuildShopCache(Long id, String key) {
-        if (tryLock(RedisConstants.LOCK_SHOP_KEY)) {
-            try {
-                // 获取到锁后进行双重校验：其他线程缓存了，且还没过期，那么直接返回
-                RedisData redisData = null;
-                if (stringRedisTemplate.opsForValue().get(key) != null) {
-                    redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(key), RedisData.class);
-                    if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-                        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-                    }
-                }
-
-                // 开启异步线程做缓存重建
-                Callable<Shop> callable = () -> {
-                    try {
-                        log.debug("Thread = {}, 开始构建shop缓存，id = {}", Thread.currentThread().getName(), 1);
-                        Shop shopFromDB = getById(id);
-                        if (shopFromDB == null) {
-                            // 缓存和数据库都不存在该数据：缓存空值避免缓存穿透
-                            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                            return null;
-                        } else {
-                            Thread.sleep(200L);
-                            RedisData newRedisData = new RedisData();
-                            newRedisData.setData(shopFromDB);
-                            newRedisData.setExpireTime(LocalDateTime.now().plusSeconds(10L));
-                            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(newRedisData));
-                            return (Shop) newRedisData.getData();
-                        }
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    } finally{
-                        unlock(RedisConstants.LOCK_SHOP_KEY);
-                    }
-                };
-                // 返回结果
-                Future<Shop> future = CACHE_REBUILD_EXECUTOR.submit(callable);
-                // 这里回阻塞当前线程 直到一部任务执行结束获得结果。
-                return future.get();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally{
-                unlock(RedisConstants.LOCK_SHOP_KEY);
-            }
-        }
-
-        // 当初始redis中的数据是null时，会有多个线程走到这个方法，但是只有一个线程能抢到锁，所以其他线程还是会返回null
-        return null;
+        return cacheClient.queryWithLogicExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, RedisConstants.CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS);
     }
 
-    // 互斥锁解决缓存击穿
+    /**
+     * 互斥锁解决缓存击穿：
+     *  原来的写法是每个线程都去setnx抢锁，没抢到就休眠100ms重试，每个等待的线程都占着一个Tomcat线程，还要反复查redis。
+     *  现在交给CacheClient：JVM内同一个key的未命中先合并成一次加载，只有一个线程去抢分布式锁，其他线程等它的结果。
+     * @param id
+     * @return
+     */
     public Shop queryWithMutex(Long id) {
-        // 1.先从redis查询商户：这里演示一下用string类型存储shop对象
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2.存在直接返回：不为null也不为""
-        if (StrUtil.isNotBlank(shopJson)) {
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-
-        // 3.命中空值
-        if ("".equals(shopJson)) {
-            return null;
-        }
-
-        // 4.redis中不存在：开始实现缓存重建。互斥锁实现缓存重建，避免高并发下复杂热点key过期导致的缓存击穿。
-        while (null == shopJson) {
-
-            // 可能在当前线程刚进到while此处时，有一个线程执行完了缓存重建逻辑，并释放了锁，此时缓存有数据了。当前线程能获取锁但是此时不需要再创建缓存，所以获取到锁后还要做双重校验。
-            // 4.1.获取互斥锁成功
-            if (tryLock(RedisConstants.LOCK_SHOP_KEY)) {
-                try {
-                    // 4.2.双重校验
-                    shopJson = stringRedisTemplate.opsForValue().get(key);
-                    if (StrUtil.isNotBlank(shopJson)) {
-                        return JSONUtil.toBean(shopJson, Shop.class);
-                    }
-
-                    // 4.3.重建缓存
-                    Shop shop = this.getById(id);
-                    // 模拟重建耗时
-                    TimeUnit.MILLISECONDS.sleep(500);
-                    if (shop == null) {
-                        // 缓存和数据库都不存在该数据：缓存空值避免缓存穿透
-                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                        return null;
-                    } else {
-                        // 存入缓存
-                        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop),
-                                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                        return shop;
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } finally{
-                    // 解锁：只有拿到锁的才能解锁，所以放到这里
-                    unlock(RedisConstants.LOCK_SHOP_KEY);
-                }
-            } else {
-                try {
-                    // 4.4.没有获取到锁，休眠一段时间，再重试查询
-                    TimeUnit.MILLISECONDS.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                // 4.5.重试从缓存获取（休眠期间其他线程可能完成了缓存重建）
-                shopJson = stringRedisTemplate.opsForValue().get(key);
-            }
-        }
-
-        // 5.shopJson不为null，意味着缓存命中，会走到此处。
-        return JSONUtil.toBean(shopJson, Shop.class);
+        return cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    // 缓存空值解决缓存穿透的逻辑
+    /**
+     * 缓存空值解决缓存穿透：数据库中不存在的id在redis中缓存空值CACHE_NULL_TTL分钟
+     *  cache:shop:*存的是CacheCodec编码的byte[]，不能再用StringRedisTemplate + hutool JSON读写，交给CacheClient。
+     * @param id
+     * @return
+     */
     public Shop queryWithPassThrough(Long id) {
-        // 1.先从redis查询商户：这里演示一下用string类型存储shop对象
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        //Map<Object, Object> shopMap = stringRedisTemplate.opsForHash().entries(key);
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2.存在直接返回
-        if (StrUtil.isNotBlank(shopJson)) {
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-
-        // 3.命中空值
-        if ("".equals(shopJson)) {
-            return null;
-        }
+        return cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
+                this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
-        // 4.redis中不存在，查询数据库
-        Shop shop = this.getById(id);
-        if (shop == null) {
-            // 4.1.将空值写到redis，避免缓存穿透：这是有数据不一致的情况的，如果这个id的商户在之后生成了，但是缓存中的空值还没过期，
-            // 那么就会出现命中空值提示数据不存在，但是数据库中有这个数据。
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+    /**
+     * 新增商户：同时把id加到布隆过滤器中
+     */
+    @Override
+    public boolean save(Shop shop) {
+        boolean success = super.save(shop);
+        if (success) {
+            idBloomFilter.add(RedisConstants.BLOOM_SHOP_KEY, shop.getId());
         }
-
-        // 5.存入缓存
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop),
-                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        return shop;
+        return success;
     }
 
     @Override
@@ -346,8 +145,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1.更新数据库
         this.updateById(shop);
 
-        // 2.删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        // 2.删除缓存：redis和本节点的一级缓存
+        cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + id);
 
         return Result.ok();
     }
@@ -431,13 +230,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1.查询店铺数据
         Shop shop = getById(id);
 
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-
-        // 3.写入redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id,
-                JSONUtil.toJsonStr(redisData));
+        // 2.封装逻辑过期时间并写入redis：过期时间带随机抖动，批量预热的key不会同时过期
+        cacheClient.setWithLogicExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 }
@@ -3,6 +3,9 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.collection.CollectionUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.constant.RespConstant;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -11,26 +14,32 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.cache.IdBloomFilter;
 import com.hmdp.utils.lock.SimpleRedisLock;
+import com.hmdp.utils.seckill.OrderRingBuffer;
+import com.hmdp.utils.seckill.OrderStatusStore;
+import com.hmdp.utils.seckill.SeckillStockManager;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 
 /**
@@ -58,6 +67,16 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    // 秒杀库存分桶：seckill.lua在这里面执行
+    @Autowired
+    private SeckillStockManager seckillStockManager;
+
+    @Autowired
+    private SeckillProperties seckillProperties;
+
     /**
      * 单体服务的互斥锁实现一人只能秒杀一单，然后生成订单，乐观锁实现库存扣减。
      * @param voucherId
@@ -66,6 +85,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Override
     public Result seckillVoucher(Long voucherId) {
 
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+        }
+
         // 1.查询优惠券
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
 
@@ -183,6 +207,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher1(Long voucherId) {
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+        }
+
         // 1.查询优惠券
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
 
@@ -237,6 +266,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * @return
      */
     public Result seckillVoucher2(Long voucherId) {
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+        }
+
         // 1.查询优惠券
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
 
@@ -282,17 +316,16 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
 
-    // 执行lua脚本seckill.lua
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    /**
+     * 环形缓冲区：替换了原来的 new ArrayBlockingQueue<>(1024 * 1024)
+     *  槽位是预分配的，生产者CAS占槽位不加锁，满了直接拒绝；消费者一次取一批订单批量写数据库。
+     */
+    @Autowired
+    private OrderRingBuffer orderRingBuffer;
 
-    // 阻塞队列：如果从队列中取元素时发现没有元素，会阻塞当前线程
-    private BlockingQueue<VoucherOrder> orderTaskQueue = new ArrayBlockingQueue<>(1024 * 1024);
+    // 订单的终态：客户端轮询用
+    @Autowired
+    private OrderStatusStore orderStatusStore;
 
     /**
      * 线程池：
@@ -306,32 +339,48 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     /**
      * 当前类初始化后就执行该方法：
-     *  向线程池中提交了一个任务，循环的从阻塞队列中拿任务做处理。
+     *  启动环形缓冲区的消费者线程，一批订单一个事务，整批失败时逐条重试。
+     *  proxy是在请求线程中发布订单之前赋值的，消费者读到订单时一定能看到。
      */
     @PostConstruct
     private void init() {
-        // 这里注释掉是方面下面的任务能成功提交，因为我们这个线程池是newSingleThreadExecutor。同时只能处理一个任务
-        // SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        orderRingBuffer.start(this::handleVoucherOrders);
     }
 
-    private class VoucherOrderHandler implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // 1.获取队列中的订单信息：如果没有会阻塞当前线程
-                    VoucherOrder voucherOrder = orderTaskQueue.take();
-                    // 2.创建订单
-                    handleVoucherOrder(voucherOrder);
-                } catch (Exception e) {
-                    log.error("异步处理订单异常：{}", e.getMessage());
-                }
+    private void handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        try {
+            markStatus(voucherOrders, proxy.createVoucherOrders(voucherOrders));
+            return;
+        } catch (Exception e) {
+            log.warn("批量创建订单失败，逐条重试，订单个数 = {}，{}", voucherOrders.size(), e.getMessage());
+        }
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            List<VoucherOrder> single = Collections.singletonList(voucherOrder);
+            try {
+                markStatus(single, proxy.createVoucherOrders(single));
+            } catch (Exception e) {
+                log.error("创建订单失败，订单id = {}，{}", voucherOrder.getId(), e.getMessage());
+                // 内存队列没有重试：直接记为失败
+                markStatus(single, Collections.emptyList());
             }
         }
     }
 
+    // 持久化了的是CREATED，被唯一索引跳过的是FAILED。写失败不影响下单，客户端看到的还是PENDING
+    private void markStatus(List<VoucherOrder> voucherOrders, List<Long> persisted) {
+        Set<Long> created = new HashSet<>(persisted);
+        List<Long> failed = voucherOrders.stream().map(VoucherOrder::getId)
+                .filter(id -> !created.contains(id))
+                .collect(Collectors.toList());
+        try {
+            orderStatusStore.mark(created, failed);
+        } catch (Exception e) {
+            log.error("写入订单状态失败：{}", e.getMessage());
+        }
+    }
+
     /**
-     * 优化秒杀：异步秒杀，JDK自带阻塞队列实现异步解耦处理
+     * 优化秒杀：异步秒杀，JDK自带阻塞队列实现异步解耦处理（现在换成了OrderRingBuffer）
      *  如果redis中没有优惠券的库存，和存储哪些用户购买过这个优惠券的set的话 要先向redis中添加库存个数据
      *  set seckill:stock:voucherId 200
      *  set集合不需要专门添加，会在sadd添加元素是创建
@@ -340,38 +389,60 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher3(Long voucherId) {
-        // 获取用户Id
-        Long userId = UserHolder.getUser().getId();
-
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString());
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+        }
 
-        // 2.判断结果
-        int r = result.intValue();
-        if (r == 1) {
+        // 0.1.本节点已经知道卖完了：直接返回，不访问redis
+        if (seckillStockManager.isSoldOut(voucherId)) {
             return Result.fail("库存不足");
         }
-        if (r == 2) {
-            return Result.fail("不能重复下单");
-        }
 
-        // 3.为0，有购买资格，把下单信息保存到阻塞队列
-        long orderId = redisIdWorker.nextId("order");
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        orderTaskQueue.add(voucherOrder);
+        // 0.2.先占环形缓冲区的槽位：满了直接拒绝，还没有扣redis的库存
+        long seq = orderRingBuffer.tryClaim();
+        if (seq < 0) {
+            return Result.fail("系统繁忙，请稍后重试");
+        }
 
-        // 在主线程中获取当前类的代理对象
+        // 在主线程中获取当前类的代理对象：要在发布订单之前赋值
         proxy = (IVoucherOrderService)AopContext.currentProxy();
 
-        // 4.返回订单id
-        return Result.ok(orderId);
+        boolean published = false;
+        try {
+            // 获取用户Id
+            Long userId = UserHolder.getUser().getId();
+            long orderId = redisIdWorker.nextId("order");
 
+            // 1.执行lua脚本：扣本桶的库存，不够时去其他桶借，不发消息
+            int r = seckillStockManager.tryAcquire(voucherId, userId, orderId, false);
+
+            // 2.判断结果
+            if (r == SeckillStockManager.NO_STOCK) {
+                return Result.fail("库存不足");
+            }
+            if (r == SeckillStockManager.DUPLICATE) {
+                return Result.fail("不能重复下单");
+            }
+            if (r == SeckillStockManager.NOT_STARTED) {
+                return Result.fail("秒杀尚未开始");
+            }
+            if (r == SeckillStockManager.ENDED) {
+                return Result.fail("秒杀活动已经结束");
+            }
+
+            // 3.为0，有购买资格，把下单信息写到占好的槽位
+            orderRingBuffer.publish(seq, orderId, userId, voucherId);
+            published = true;
+
+            // 4.返回订单id
+            return Result.ok(orderId);
+        } finally {
+            // 占了槽位就必须发布：没有下单成功的发布为空事件
+            if (!published) {
+                orderRingBuffer.publishEmpty(seq);
+            }
+        }
     }
 
     // 这里是异步处理动作，不用返回给前端
@@ -429,11 +500,55 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
 
+    /**
+     * 批量持久化订单：一条多行INSERT + 每个优惠券一条 stock = stock - k，在一个事务中
+     *  1.一人一单由唯一索引uk_user_voucher保证，重复下单的行插入时跳过，不用再按用户加分布式锁。
+     *  2.消息可能重复投递（提交了事务但没来得及ACK）：先查出已经存在的订单id排除掉，避免重复扣库存。
+     *  3.插入后按订单id查回实际插入的行，按优惠券汇总扣库存。库存不够时抛异常回滚整批，由调用方逐条重试。
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.排除已经持久化过的订单
+        List<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existing = query().select("id").in("id", ids).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = voucherOrders.stream()
+                .filter(order -> !existing.contains(order.getId()))
+                .collect(Collectors.toList());
+        List<Long> persisted = new ArrayList<>(existing);
+        if (newOrders.isEmpty()) {
+            return persisted;
+        }
+
+        // 2.一条多行INSERT，重复下单的跳过
+        getBaseMapper().insertBatchIgnoreDuplicate(newOrders);
+
+        // 3.查回实际插入的订单，按优惠券汇总扣库存
+        List<Long> newIds = newOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        List<VoucherOrder> inserted = query().select("id", "voucher_id").in("id", newIds).list();
+        Map<Long, Long> counts = inserted.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+            long k = entry.getValue();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", k)
+                    .update();
+            if (!success) {
+                throw new IllegalStateException("库存不足，voucherId = " + entry.getKey() + "，扣减数量 = " + k);
+            }
+        }
+        inserted.forEach(order -> persisted.add(order.getId()));
+        return persisted;
+    }
 
     @PostConstruct
     private void init1() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler1());
-        log.info("提交任务，开始循环从Stream消息队列中获取消息！");
+        // 这里注释掉是因为改成了VoucherOrderConsumer批量消费：两个消费者同时用consumer1读同一个消费者组没有意义
+        // SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler1());
+        // log.info("提交任务，开始循环从Stream消息队列中获取消息！");
     }
 
     /**
@@ -556,25 +671,37 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher4(Long voucherId) {
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+        }
+
+        // 0.1.本节点已经知道卖完了：直接返回，不访问redis
+        if (seckillStockManager.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+
         // 获取用户Id
         Long userId = UserHolder.getUser().getId();
         // 生成订单id：无论最后订单有没有生成成功，全局id都会生成一次。
         long orderId = redisIdWorker.nextId("order");
 
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.singletonList("stream.orders"),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        // 1.执行lua脚本：扣本桶的库存，不够时去其他桶借
+        int r = seckillStockManager.tryAcquire(voucherId, userId, orderId, true);
 
         // 2.判断结果
-        int r = result.intValue();
-        if (r == 1) {
+        if (r == SeckillStockManager.NO_STOCK) {
             return Result.fail("库存不足");
         }
-        if (r == 2) {
+        if (r == SeckillStockManager.DUPLICATE) {
             return Result.fail("不能重复下单");
         }
+        if (r == SeckillStockManager.NOT_STARTED) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (r == SeckillStockManager.ENDED) {
+            return Result.fail("秒杀活动已经结束");
+        }
 
         // 在主线程中获取当前类的代理对象
         proxy = (IVoucherOrderService)AopContext.currentProxy();
@@ -583,4 +710,112 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
 
     }
+
+    /**
+     * 异步秒杀：和seckillVoucher4一样用Stream消息队列，lua脚本通过lettuce的异步连接执行。
+     *  1.调用线程只做本地的校验、生成订单id（号段模式基本不访问redis），发出脚本后立即返回，不等redis的结果。
+     *  2.redis的结果在lettuce的IO线程上回调，转换成Result，由controller写到DeferredResult中。
+     *  3.同步版本一个请求在redis往返期间占一个tomcat线程，并发上限就是tomcat的线程数；
+     *    异步版本在途的请求只占连接和一个future，少量线程就能撑住大量并发。
+     * @param voucherId
+     * @return
+     */
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        // 0.布隆过滤器判断不存在的优惠券id一定不存在
+        if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+            return CompletableFuture.completedFuture(Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST));
+        }
+
+        // 0.1.本节点已经知道卖完了：直接返回，不访问redis
+        if (seckillStockManager.isSoldOut(voucherId)) {
+            return CompletableFuture.completedFuture(Result.fail("库存不足"));
+        }
+
+        // 用户id要在调用线程上取：回调线程的ThreadLocal中没有用户
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+
+        // 1.异步执行lua脚本：扣本桶的库存，不够时去其他桶借，发消息
+        return seckillStockManager.tryAcquireAsync(voucherId, userId, orderId, true)
+                .thenApply(r -> {
+                    // 2.判断结果
+                    if (r == SeckillStockManager.NO_STOCK) {
+                        return Result.fail("库存不足");
+                    }
+                    if (r == SeckillStockManager.DUPLICATE) {
+                        return Result.fail("不能重复下单");
+                    }
+                    if (r == SeckillStockManager.NOT_STARTED) {
+                        return Result.fail("秒杀尚未开始");
+                    }
+                    if (r == SeckillStockManager.ENDED) {
+                        return Result.fail("秒杀活动已经结束");
+                    }
+                    // 3.返回订单id
+                    return Result.ok(orderId);
+                });
+    }
+
+    /**
+     * 组合券秒杀：原来买一个组合要对每个优惠券调一次seckillVoucher4，每次一个EVAL，中间失败了前面的已经扣了。
+     *  1.seckill_bundle.lua先检查所有优惠券的一人一单和库存，都满足才一起扣减，任何一个不满足都不修改。
+     *  2.脚本只发一条消息，带上所有订单行，消费者在一个事务中持久化。
+     *  3.脚本的key跨多个优惠券和桶，redis集群上会报CROSSSLOT：连的是集群时直接返回不支持。
+     * @param voucherIds
+     * @return
+     */
+    @Override
+    public Result seckillBundle(List<Long> voucherIds) {
+        // 0.组合券的脚本跨slot：集群部署不支持，不去执行脚本
+        if (!seckillStockManager.supportsBundle()) {
+            return Result.fail("redis集群部署不支持组合券秒杀");
+        }
+
+        // 0.参数校验：不能为空、不能超过上限、不能重复
+        if (CollectionUtil.isEmpty(voucherIds) || voucherIds.size() > seckillProperties.getBundleMaxSize()) {
+            return Result.fail("优惠券个数超出范围");
+        }
+        if (new HashSet<>(voucherIds).size() != voucherIds.size()) {
+            return Result.fail("优惠券不能重复");
+        }
+
+        // 0.1.布隆过滤器和本节点的售罄标记：任何一个不满足都不访问redis
+        for (Long voucherId : voucherIds) {
+            if (!idBloomFilter.mightContain(RedisConstants.BLOOM_VOUCHER_KEY, voucherId)) {
+                return Result.fail(RespConstant.MESSAGE_VOUCHER_NO_EXIST);
+            }
+            if (seckillStockManager.isSoldOut(voucherId)) {
+                return Result.fail("优惠券" + voucherId + "库存不足");
+            }
+        }
+
+        // 获取用户Id，每个优惠券一个订单id
+        Long userId = UserHolder.getUser().getId();
+        List<Long> orderIds = new ArrayList<>(voucherIds.size());
+        for (int i = 0; i < voucherIds.size(); i++) {
+            orderIds.add(redisIdWorker.nextId("order"));
+        }
+
+        // 1.执行lua脚本：全部检查，全部扣减，发一条消息
+        SeckillStockManager.BundleResult r = seckillStockManager.tryAcquireBundle(voucherIds, userId, orderIds,
+                RedisConstants.SECKILL_ORDER_STREAM_KEY);
+
+        // 2.判断结果
+        if (r.getResult() == SeckillStockManager.NO_STOCK) {
+            return Result.fail(r.getIndex() < 0 ? "库存不足" : "优惠券" + voucherIds.get(r.getIndex()) + "库存不足");
+        }
+        if (r.getResult() == SeckillStockManager.DUPLICATE) {
+            return Result.fail("优惠券" + voucherIds.get(r.getIndex()) + "不能重复下单");
+        }
+        if (r.getResult() == SeckillStockManager.NOT_STARTED) {
+            return Result.fail("优惠券" + voucherIds.get(r.getIndex()) + "秒杀尚未开始");
+        }
+        if (r.getResult() == SeckillStockManager.ENDED) {
+            return Result.fail("优惠券" + voucherIds.get(r.getIndex()) + "秒杀活动已经结束");
+        }
+
+        // 3.返回订单id
+        return Result.ok(orderIds);
+    }
 }
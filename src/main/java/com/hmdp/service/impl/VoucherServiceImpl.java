@@ -8,7 +8,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.cache.IdBloomFilter;
+import com.hmdp.utils.seckill.SeckillCampaignScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,7 +31,10 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillCampaignScheduler seckillCampaignScheduler;
+
+    @Resource
+    private IdBloomFilter idBloomFilter;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -40,6 +44,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    /**
+     * 新增优惠券：同时把id加到布隆过滤器中
+     */
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean success = super.save(voucher);
+        if (success) {
+            idBloomFilter.add(RedisConstants.BLOOM_VOUCHER_KEY, voucher.getId());
+        }
+        return success;
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,8 +69,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 将优惠券信息缓存到redis中：不设置有效期
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(),
-                voucher.getStock().toString());
+        // 马上就要开始的立即把库存和时间窗口预热到redis，其余的等开始前由定时任务预热
+        seckillCampaignScheduler.onCreated(seckillVoucher);
     }
 }
@@ -1,20 +1,36 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheRebuildProperties;
 import com.hmdp.constant.RedisConstants;
 import com.hmdp.entity.RedisData;
+import com.hmdp.utils.cache.CacheInvalidationBus;
+import com.hmdp.utils.cache.CacheRebuildScheduler;
+import com.hmdp.utils.cache.HotKeyDetector;
+import com.hmdp.utils.cache.LocalCacheManager;
+import com.hmdp.utils.cache.SingleFlight;
+import com.hmdp.utils.cache.codec.CacheCodec;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * 描述：
@@ -26,16 +42,64 @@ import java.util.function.Function;
 @Slf4j
 public class CacheClient {
 
+    // 分布式锁
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 缓存值按byte[]存取，格式由codec决定
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 缓存值的编解码：二进制或JSON，两种格式都能读
+    private final CacheCodec codec;
+
+    // 空值：空数组，和原来字符串格式的""在redis中是一样的
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    // redis未命中
+    private static final Object MISS = new Object();
+
+    // 一级缓存：进程内缓存
+    private final LocalCacheManager localCacheManager;
+
+    // 通知其他节点删除一级缓存
+    private final CacheInvalidationBus cacheInvalidationBus;
+
+    // 共享的缓存重建调度器：有界队列，同一个key去重
+    private final CacheRebuildScheduler cacheRebuildScheduler;
+
+    // 提前刷新系数、过期时间抖动比例
+    private final CacheRebuildProperties rebuildProperties;
+
+    // 热点key探测：每次访问缓存时采样
+    private final HotKeyDetector hotKeyDetector;
+
+    // 缓存重建的分布式锁前缀：每个key一把锁
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
+    // JVM内同一个key的未命中只加载一次，分布式锁每个节点只抢一次，而不是每个线程都抢
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodec codec, LocalCacheManager localCacheManager,
+                       CacheInvalidationBus cacheInvalidationBus, CacheRebuildScheduler cacheRebuildScheduler,
+                       CacheRebuildProperties rebuildProperties, HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.codec = codec;
+        this.localCacheManager = localCacheManager;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.cacheRebuildScheduler = cacheRebuildScheduler;
+        this.rebuildProperties = rebuildProperties;
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    // 查一级缓存：同时记录一次访问，热点key写一级缓存时会被固定在本地
+    private Object localGet(String key) {
+        hotKeyDetector.record(key);
+        return localCacheManager.get(key);
     }
 
     private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 1000, TimeUnit.SECONDS);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
     }
 
@@ -46,15 +110,95 @@ public class CacheClient {
 
     // 写缓存
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        set(key, value, time, unit, localCacheManager.epoch());
+    }
+
+    // epoch：开始加载value时的失效序号
+    private void set(String key, Object value, Long time, TimeUnit unit, long epoch) {
+        byteRedisTemplate.opsForValue().set(key, codec.encode(value), time, unit);
+        localCacheManager.put(key, value, epoch);
     }
 
     // 写缓存：逻辑过期属性
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicExpire(key, value, time, unit, localCacheManager.epoch(), null);
+    }
+
+    /**
+     * @param epoch 开始加载value时的失效序号
+     * @param rebuildMillis 这次重建的耗时，用来计算下次提前刷新的概率，不知道时传null
+     */
+    private void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit, long epoch, Long rebuildMillis) {
+        RedisData redisData = newRedisData(value, time, unit, rebuildMillis);
+        byteRedisTemplate.opsForValue().set(key, codec.encodeLogical(redisData));
+        // 一级缓存中存的是data已经是具体类型的RedisData，同样要判断逻辑过期
+        localCacheManager.put(key, redisData, epoch);
+    }
+
+    /**
+     * 批量写逻辑过期的缓存：一次pipeline写入，用于预热
+     * @param values key -> value
+     */
+    public void setBatchWithLogicExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        setBatchWithLogicExpire(values, time, unit, rebuildProperties.getDefaultRebuildMillis());
+    }
+
+    /**
+     * @param loadMillis 加载这一批的耗时，作为每个key的重建耗时，用来计算提前刷新的概率
+     */
+    public void setBatchWithLogicExpire(Map<String, ?> values, Long time, TimeUnit unit, long loadMillis) {
+        long epoch = localCacheManager.epoch();
+        long rebuildMillis = Math.max(1L, loadMillis);
+        Map<byte[], byte[]> writes = new HashMap<>(values.size() * 2);
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            RedisData redisData = newRedisData(entry.getValue(), time, unit, rebuildMillis);
+            writes.put(entry.getKey().getBytes(StandardCharsets.UTF_8), codec.encodeLogical(redisData));
+            localCacheManager.put(entry.getKey(), redisData, epoch);
+        }
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<byte[], byte[]> write : writes.entrySet()) {
+                connection.set(write.getKey(), write.getValue());
+            }
+            return null;
+        });
+    }
+
+    private RedisData newRedisData(Object value, Long time, TimeUnit unit, Long rebuildMillis) {
+        // 过期时间加上随机抖动：批量预热的key（比如saveShop2Redis）不会在同一时刻过期，重建压力分散开
+        long millis = unit.toMillis(time);
+        double jitterRatio = rebuildProperties.getExpireJitterRatio();
+        if (jitterRatio > 0) {
+            millis += (long) (millis * jitterRatio * ThreadLocalRandom.current().nextDouble());
+        }
+
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plus(millis, ChronoUnit.MILLIS));
+        redisData.setRebuildMillis(rebuildMillis);
+        return redisData;
+    }
+
+    // 写列表缓存
+    public void setList(String key, List<?> values, Long time, TimeUnit unit) {
+        setList(key, values, time, unit, localCacheManager.epoch());
+    }
+
+    private void setList(String key, List<?> values, Long time, TimeUnit unit, long epoch) {
+        byteRedisTemplate.opsForValue().set(key, codec.encodeList(values), time, unit);
+        localCacheManager.put(key, values, epoch);
+    }
+
+    // 删缓存：redis和本节点的一级缓存都要删，再通知其他节点删除一级缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCacheManager.invalidate(key);
+        cacheInvalidationBus.publish(key);
+    }
+
+    // 写空值：避免缓存穿透
+    private void setNull(String key, long epoch) {
+        byteRedisTemplate.opsForValue().set(key, NULL_BYTES, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+        localCacheManager.put(key, null, epoch);
     }
 
     /**
@@ -68,17 +212,32 @@ public class CacheClient {
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> rClass,
                                           Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        // 1.先从redis查询商户：这里演示一下用string类型存储shop对象
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 查询redis之前记下失效序号：查询期间收到的失效消息能删掉这次写入的一级缓存
+        long epoch = localCacheManager.epoch();
+
+        // 0.先查一级缓存：命中直接返回，不走redis
+        Object local = localGet(key);
+        if (local != null) {
+            return local == LocalCacheManager.NULL_VALUE ? null : rClass.cast(local);
+        }
+
+        // 1.再从redis查询商户
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
 
         // 2.存在直接返回
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, rClass);
+        if (bytes != null && bytes.length > 0) {
+            R r = codec.decode(bytes, rClass);
+            // 解不出来（实体类字段变了）按未命中处理
+            if (r != null) {
+                localCacheManager.put(key, r, epoch);
+                return r;
+            }
         }
 
         // 3.命中空值
-        if ("".equals(json)) {
+        if (bytes != null && bytes.length == 0) {
+            localCacheManager.put(key, null, epoch);
             return null;
         }
 
@@ -87,81 +246,342 @@ public class CacheClient {
          *  注意这里根本不知道要查的是商户还是用户还是什么，所以不能在这里实现，让调用者把这段逻辑传给我们。
          * 传什么：
          *  我们需要的是一段查询逻辑，或者说查询方法，有参数有返回值的方法，那么用Function
+         * 同一个key并发未命中时，JVM内只有一个线程查数据库，其他线程等它的结果
          */
-        R r = dbFallback.apply(id);
-        if (r == null) {
-            // 4.1.将空值写到redis，避免缓存穿透：这是有数据不一致的情况的，如果这个id的商户在之后生成了，但是缓存中的空值还没过期，
-            // 那么就会出现命中空值提示数据不存在，但是数据库中有这个数据。
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+        return singleFlight.execute(key, () -> {
+            R r = dbFallback.apply(id);
+            if (r == null) {
+                // 4.1.将空值写到redis，避免缓存穿透：这是有数据不一致的情况的，如果这个id的商户在之后生成了，但是缓存中的空值还没过期，
+                // 那么就会出现命中空值提示数据不存在，但是数据库中有这个数据。
+                setNull(key, epoch);
+                return null;
+            }
+
+            // 5.存入缓存
+            this.set(key, r, time, unit, epoch);
+            return r;
+        });
+    }
+
+    /**
+     * 批量查询：一级缓存 -> 一次MGET -> 一次批量查数据库 -> 一次pipeline写回
+     *  原来查N个对象要N次redis往返，未命中时还要N次数据库查询。
+     * @param ids id列表，可以重复
+     * @param dbBatchFallback 批量查询数据库，比如listByIds（selectBatchIds），返回id -> 对象，数据库中不存在的id不用放
+     * @return 和ids的顺序一一对应，不存在的是null
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> rClass,
+                                      Function<List<ID>, Map<ID, R>> dbBatchFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
         }
+        long epoch = localCacheManager.epoch();
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
 
-        // 5.存入缓存
-        this.set(key, r, time, unit);
+        // 1.一级缓存：命中空值的也算找到了
+        List<ID> redisMisses = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            Object local = localGet(keyPrefix + id);
+            if (local == null) {
+                redisMisses.add(id);
+            } else if (local != LocalCacheManager.NULL_VALUE) {
+                found.put(id, rClass.cast(local));
+            }
+        }
+
+        // 2.一次MGET查redis
+        List<ID> dbMisses = new ArrayList<>();
+        if (!redisMisses.isEmpty()) {
+            List<String> keys = new ArrayList<>(redisMisses.size());
+            for (ID id : redisMisses) {
+                keys.add(keyPrefix + id);
+            }
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < redisMisses.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                Object hit = cacheHit(keys.get(i), bytes, rClass, epoch);
+                if (hit == MISS) {
+                    dbMisses.add(redisMisses.get(i));
+                } else if (hit != null) {
+                    found.put(redisMisses.get(i), rClass.cast(hit));
+                }
+            }
+        }
+
+        // 3.一次查询数据库，一次pipeline写回：不存在的写空值
+        if (!dbMisses.isEmpty()) {
+            Map<ID, R> loaded = dbBatchFallback.apply(dbMisses);
+            Map<byte[], byte[]> writes = new HashMap<>(dbMisses.size() * 2);
+            for (ID id : dbMisses) {
+                R r = loaded == null ? null : loaded.get(id);
+                String key = keyPrefix + id;
+                writes.put(key.getBytes(StandardCharsets.UTF_8), r == null ? NULL_BYTES : codec.encode(r));
+                localCacheManager.put(key, r, epoch);
+                if (r != null) {
+                    found.put(id, r);
+                }
+            }
+            Expiration valueTtl = Expiration.from(time, unit);
+            Expiration nullTtl = Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<byte[], byte[]> write : writes.entrySet()) {
+                    connection.set(write.getKey(), write.getValue(),
+                            write.getValue().length == 0 ? nullTtl : valueTtl, RedisStringCommands.SetOption.UPSERT);
+                }
+                return null;
+            });
+        }
 
+        // 4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 列表缓存：比如商户类型列表，key就是完整的key
+     * @param dbFallback 数据库查询逻辑，返回null表示查询失败，不缓存
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> queryListWithPassThrough(String key, Class<R> rClass, Supplier<List<R>> dbFallback,
+                                                Long time, TimeUnit unit) {
+        long epoch = localCacheManager.epoch();
+
+        // 0.先查一级缓存
+        Object local = localGet(key);
+        if (local instanceof List) {
+            return (List<R>) local;
+        }
+
+        // 1.再查redis
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        if (bytes != null && bytes.length > 0) {
+            List<R> list = codec.decodeList(bytes, rClass);
+            if (list != null) {
+                localCacheManager.put(key, list, epoch);
+                return list;
+            }
+        }
+
+        // 2.查数据库，存入缓存
+        return singleFlight.execute(key, () -> {
+            List<R> list = dbFallback.get();
+            if (list != null) {
+                setList(key, list, time, unit, epoch);
+            }
+            return list;
+        });
+    }
+
+    /**
+     * 互斥锁解决缓存击穿：
+     *  1.JVM内先用single-flight合并：同一个key只有一个线程去抢分布式锁，其他线程等待它的结果，不占用redis也不休眠重试。
+     *  2.抢到分布式锁的节点查数据库重建缓存，没抢到的节点休眠后重查redis。
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> rClass,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long epoch = localCacheManager.epoch();
+
+        // 0.先查一级缓存
+        Object local = localGet(key);
+        if (local != null) {
+            return local == LocalCacheManager.NULL_VALUE ? null : rClass.cast(local);
+        }
+
+        // 1.再查redis：存在直接返回，空值返回null
+        Object hit = cacheHit(key, byteRedisTemplate.opsForValue().get(key), rClass, epoch);
+        if (hit != MISS) {
+            return rClass.cast(hit);
+        }
+
+        // 2.未命中：JVM内合并后再抢分布式锁重建
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, rClass, dbFallback, time, unit, epoch));
+    }
+
+    private <R, ID> R rebuildWithMutex(String key, ID id, Class<R> rClass, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit, long epoch) {
+        String lockKey = LOCK_KEY_PREFIX + key;
+        while (true) {
+            if (tryLock(lockKey)) {
+                try {
+                    // 2.1.双重校验：可能其他节点刚重建完
+                    Object hit = cacheHit(key, byteRedisTemplate.opsForValue().get(key), rClass, epoch);
+                    if (hit != MISS) {
+                        return rClass.cast(hit);
+                    }
+
+                    // 2.2.重建缓存
+                    R r = dbFallback.apply(id);
+                    if (r == null) {
+                        setNull(key, epoch);
+                        return null;
+                    }
+                    this.set(key, r, time, unit, epoch);
+                    return r;
+                } finally {
+                    unlock(lockKey);
+                }
+            }
+
+            // 2.3.没抢到锁：其他节点在重建，休眠一段时间再查redis
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            Object hit = cacheHit(key, byteRedisTemplate.opsForValue().get(key), rClass, epoch);
+            if (hit != MISS) {
+                return rClass.cast(hit);
+            }
+        }
+    }
+
+    /**
+     * redis命中：空数组是空值
+     * @return 缓存的值，不存在或者解不出来（实体类字段变了）时返回MISS
+     */
+    private Object cacheHit(String key, byte[] bytes, Class<?> rClass, long epoch) {
+        if (bytes == null) {
+            return MISS;
+        }
+        Object r = null;
+        if (bytes.length > 0) {
+            r = codec.decode(bytes, rClass);
+            if (r == null) {
+                return MISS;
+            }
+        }
+        localCacheManager.put(key, r, epoch);
         return r;
     }
 
     public <R, ID> R queryWithLogicExpire(String keyPrefix, ID id, Class<R> rClass,
                                           Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        // 1.先从redis查询商户：这里演示一下用string类型存储shop对象
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        long epoch = localCacheManager.epoch();
+
+        // 0.先查一级缓存：一级缓存中的RedisData的data已经是R类型，没有逻辑过期直接返回，过期了再去redis看看其他节点是否已经重建了
+        Object local = localGet(key);
+        if (local == LocalCacheManager.NULL_VALUE) {
+            return null;
+        }
+        if (local != null) {
+            RedisData localData = (RedisData) local;
+            if (localData.getExpireTime().isAfter(LocalDateTime.now())) {
+                // 没过期，但是越接近过期时间越可能提前刷新
+                if (shouldRefreshEarly(localData)) {
+                    submitRebuild(key, id, rClass, dbFallback, time, unit, localData.getExpireTime());
+                }
+                return rClass.cast(localData.getData());
+            }
+            // 过期了但本节点正在重建：直接返回旧数据
+            if (cacheRebuildScheduler.isPending(key)) {
+                return rClass.cast(localData.getData());
+            }
+        }
+
+        // 1.再从redis查询商户
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
 
         // 2.空值都意味着数据库不存在该商户
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             return null;
         }
 
-        // 3.命中判断过期时间
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, rClass);
+        // 3.命中判断过期时间：解码一次就拿到R类型的data
+        RedisData redisData = codec.decodeLogical(bytes, rClass);
+        if (redisData == null) {
+            // 实体类字段变了，旧数据解不出来：同步重建一次
+            return singleFlight.execute(key, () -> rebuildLogical(key, id, dbFallback, time, unit, epoch, System.nanoTime()));
+        }
+        R r = rClass.cast(redisData.getData());
         if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-            // 3.1.没过期
+            // 3.1.没过期：放到一级缓存
+            localCacheManager.put(key, redisData, epoch);
+            // 3.2.提前刷新：XFetch
+            if (shouldRefreshEarly(redisData)) {
+                submitRebuild(key, id, rClass, dbFallback, time, unit, redisData.getExpireTime());
+            }
             return r;
         }
 
-        // 可能在当前线程刚走到这里判断了缓存数据已过期后，有一个线程执行完了缓存重建逻辑，并释放了锁，缓存有数据了
-        // 当前线程能获取锁但是此时不需要再创建缓存了，所以在获取到锁时还要做一次校验重校，即双重校验
+        // 4.缓存的数据已过期：放到一级缓存，重建期间本节点直接返回旧数据，不用每次都查redis
+        localCacheManager.put(key, redisData, epoch);
 
-        // 4.缓存的数据已过期
-        // 4.1.成功获取锁：做缓存重建
-        if (tryLock(RedisConstants.LOCK_SHOP_KEY)) {
-            try {
-                // 4.2.获取到锁后进行双重校验
-                redisData = JSONUtil.toBean(stringRedisTemplate.opsForValue().get(key), RedisData.class);
-                if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-                    unlock(RedisConstants.LOCK_SHOP_KEY);
-                    return JSONUtil.toBean((JSONObject) redisData.getData(), rClass);
-                }
-            } catch (Exception e) {
-                unlock(RedisConstants.LOCK_SHOP_KEY);
-                throw new RuntimeException(e);
-            }
+        // 4.1.提交重建任务：同一个key在本节点排队或执行中时不会重复提交
+        submitRebuild(key, id, rClass, dbFallback, time, unit, redisData.getExpireTime());
 
-            // 4.2.开启异步线程做缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    log.debug("Thread = {}, 开始构建shop缓存，id = {}", Thread.currentThread().getName(), 1);
-                    R rFromDB = dbFallback.apply(id);
-                    if (rFromDB == null) {
-                        // 缓存和数据库都不存在该数据：缓存空值避免缓存穿透
-                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    } else {
-                        Thread.sleep(200L); // 模拟复杂key的重建
-                        this.setWithLogicExpire(key, rFromDB, time, unit);
+        // 5.不等重建结果，返回旧数据
+        return r;
+    }
+
+    /**
+     * XFetch提前刷新：now - delta * beta * ln(rand) >= expireTime 时刷新
+     *  delta是上次重建的耗时，rand是(0, 1]的随机数，-ln(rand)是均值为1的指数分布。
+     *  离过期时间越近、重建越慢，提前刷新的概率越大，热点key的重建就分散在过期前的一段时间里，而不是过期那一刻一起重建。
+     *  delta至少1ms：不然本地数据库很快、耗时记成0时就永远不会提前刷新。没有记录耗时的老数据用defaultRebuildMillis。
+     */
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        double beta = rebuildProperties.getEarlyRefreshBeta();
+        if (beta <= 0) {
+            return false;
+        }
+        Long rebuildMillis = redisData.getRebuildMillis();
+        long delta = Math.max(1L, rebuildMillis == null ? rebuildProperties.getDefaultRebuildMillis() : rebuildMillis);
+        double gap = -delta * beta * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plus((long) gap, ChronoUnit.MILLIS).isBefore(redisData.getExpireTime());
+    }
+
+    /**
+     * 提交逻辑过期的重建任务：分布式锁在重建线程中抢，请求线程不抢锁也不等待
+     * @param observedExpireTime 触发重建时看到的过期时间
+     */
+    private <R, ID> void submitRebuild(String key, ID id, Class<R> rClass, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit, LocalDateTime observedExpireTime) {
+        cacheRebuildScheduler.submit(key, () -> {
+            // 1.抢锁失败：说明其他节点在重建
+            String lockKey = LOCK_KEY_PREFIX + key;
+            if (!tryLock(lockKey)) {
+                return null;
+            }
+            try {
+                // 2.可能在当前线程判断了缓存数据需要重建后，有一个节点执行完了缓存重建逻辑并释放了锁，所以获取到锁后还要做双重校验
+                //  过期时间比触发时看到的晚，说明已经被重建过了（提前刷新时数据还没过期，所以不能只判断是否过期）
+                long rebuildEpoch = localCacheManager.epoch();
+                byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+                if (bytes != null && bytes.length > 0) {
+                    RedisData redisData = codec.decodeLogical(bytes, rClass);
+                    if (redisData != null && redisData.getExpireTime().isAfter(observedExpireTime)) {
+                        localCacheManager.put(key, redisData, rebuildEpoch);
+                        return null;
                     }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally{
-                    unlock(RedisConstants.LOCK_SHOP_KEY);
                 }
-            });
 
-        }
+                // 3.重建缓存
+                log.debug("Thread = {}, 开始重建缓存，key = {}", Thread.currentThread().getName(), key);
+                rebuildLogical(key, id, dbFallback, time, unit, rebuildEpoch, System.nanoTime());
+                return null;
+            } finally {
+                unlock(lockKey);
+            }
+        });
+    }
 
-        // 5.过期且没获取到锁：说明有其他线程获得了锁，去开启了异步线程做缓存重建。返回旧数据
-        return r;
+    // 查数据库写逻辑过期缓存，记录重建耗时：用nanoTime计时，不受系统时钟调整影响，至少记1ms
+    private <R, ID> R rebuildLogical(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                     long epoch, long beginNanos) {
+        R rFromDB = dbFallback.apply(id);
+        if (rFromDB == null) {
+            // 缓存和数据库都不存在该数据：缓存空值避免缓存穿透
+            setNull(key, epoch);
+        } else {
+            long rebuildMillis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+            this.setWithLogicExpire(key, rFromDB, time, unit, epoch, rebuildMillis);
+        }
+        return rFromDB;
     }
 }
@@ -1,5 +1,8 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.IdProperties;
+import com.hmdp.utils.id.SegmentIdAllocator;
+import com.hmdp.utils.id.SnowflakeIdGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
@@ -22,6 +25,9 @@ import java.time.format.DateTimeFormatter;
  *
  *  这样ID整体是递增的，也方便数据库建立索引，方便查询，而且相对于UUID它不是字符型是数值型，存储空间较小。有一定复杂度，不容易看出规律。每天一个key方便做统计
  *
+ *  hmdp.id.mode=segment时，序列号改成从SegmentIdAllocator的号段中取，不用每个id都访问一次redis，id的格式不变。
+ *  hmdp.id.mode=snowflake时，由SnowflakeIdGenerator在本地生成，高32位同样是时间戳，id仍然按时间有序。
+ *
  * @author txl
  * @date 2022-07-28 10:57
  */
@@ -37,6 +43,15 @@ public class RedisIdWorker {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private IdProperties idProperties;
+
+    @Autowired
+    private SegmentIdAllocator segmentIdAllocator;
+
+    @Autowired
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
     /**
      * 生成唯一全局id：
      *  redis的increment每次递增生成一个数值，最大值为2^32次幂，作为全局id低32位，
@@ -52,6 +67,10 @@ public class RedisIdWorker {
      * @return
      */
     public long nextId(String keyPrefix) {
+        if (idProperties.getMode() == IdProperties.Mode.SNOWFLAKE) {
+            // snowflake模式：不访问redis，各业务共用一个序列
+            return snowflakeIdGenerator.nextId();
+        }
 
         // 1.生成时间戳：基于20220101-00:00:00的时间戳
         LocalDateTime now = LocalDateTime.now();
@@ -62,7 +81,13 @@ public class RedisIdWorker {
         // 2.1.获取当前日期，精确到天
         String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
         // 2.2.数值部分：如果key不存在，会自动创建，所以不会有空指针
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count;
+        if (idProperties.getMode() == IdProperties.Mode.SEGMENT) {
+            // 号段模式：从本地号段中取，号段用完才访问redis
+            count = segmentIdAllocator.nextSequence(keyPrefix, date);
+        } else {
+            count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        }
 
         // 3.拼接并返回
         /**
@@ -84,6 +109,14 @@ public class RedisIdWorker {
         return timestamp << COUNT_BITS | count;
     }
 
+    /**
+     * id生成了多少秒：高32位是生成时的时间戳，redis、segment、snowflake模式都一样
+     */
+    public static long ageSeconds(long id) {
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        return nowSecond - BEGIN_TIMESTAMP - (id >>> COUNT_BITS);
+    }
+
     public static void main(String[] args) {
 
         // 获得2022-01-01 00:00:00这个时刻的时间戳
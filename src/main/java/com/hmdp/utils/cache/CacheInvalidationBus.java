@@ -0,0 +1,170 @@
+package com.hmdp.utils.cache;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.LocalCacheProperties;
+import com.hmdp.constant.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述：一级缓存的跨节点失效：基于redis的发布订阅
+ *
+ *  1.写操作删除缓存后，把key放到待发送集合中，每隔一个tick攒批发送一条失效消息，同一个tick内重复的key只发一次。
+ *  2.每条消息带一个全局递增的序号（INCR cache:invalidate:seq），序号是在删除redis缓存之后才生成的。
+ *      节点收到序号为seq的消息时，只删除在seq之前加载的一级缓存项，所以迟到的消息不会删掉更新的值。
+ *  3.消息格式：第一行是序号，后面每行一个key。
+ *  4.漏收消息的兜底：
+ *      4.1.收到的序号不连续，说明中间有消息没收到（或者多个节点的消息乱序到达），直接清空一级缓存。
+ *      4.2.定时检查redis中的序号，如果比本节点的大，且过了一个检查周期还没收到对应的消息（比如断线重连期间的消息），清空一级缓存。
+ *
+ * @author txl
+ * @date 2026-10-17 14:10
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LocalCacheManager localCacheManager;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final LocalCacheProperties properties;
+
+    // 待发送的失效key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    // 上次检查时发现的redis中超前的序号，0表示没有超前
+    private long laggingSeq = 0L;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheInvalidationBus(StringRedisTemplate stringRedisTemplate, LocalCacheManager localCacheManager,
+                                RedisMessageListenerContainer listenerContainer, LocalCacheProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.localCacheManager = localCacheManager;
+        this.listenerContainer = listenerContainer;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 以redis中当前的序号作为起点
+        localCacheManager.advanceEpoch(currentSeq());
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+
+        long tick = properties.getInvalidateTickMillis();
+        long check = properties.getInvalidateCheckMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, tick, tick, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::checkMissed, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    /**
+     * 通知所有节点删除key对应的一级缓存：下一个tick发送
+     */
+    public void publish(String key) {
+        pendingKeys.add(key);
+    }
+
+    // 攒批发送失效消息
+    private void flush() {
+        if (pendingKeys.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        Iterator<String> iterator = pendingKeys.iterator();
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+            iterator.remove();
+        }
+        try {
+            Long seq = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_INVALIDATE_SEQ_KEY);
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL,
+                    seq + "\n" + String.join("\n", keys));
+        } catch (Exception e) {
+            // 发送失败：放回去下一个tick重试
+            log.error("发送缓存失效消息失败：{}", e.getMessage());
+            pendingKeys.addAll(keys);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] lines = new String(message.getBody(), StandardCharsets.UTF_8).split("\n");
+        long seq = Long.parseLong(lines[0]);
+
+        // 1.序号不连续：中间有消息没收到，清空一级缓存
+        if (seq > localCacheManager.epoch() + 1) {
+            log.debug("缓存失效消息序号不连续，当前 = {}，收到 = {}，清空一级缓存", localCacheManager.epoch(), seq);
+            localCacheManager.invalidateAll();
+        }
+
+        // 2.只删除在seq之前加载的缓存项
+        for (int i = 1; i < lines.length; i++) {
+            if (StrUtil.isNotBlank(lines[i])) {
+                localCacheManager.invalidate(lines[i], seq);
+            }
+        }
+        localCacheManager.advanceEpoch(seq);
+    }
+
+    // 检查是否漏收了消息：比如断线重连期间发送的消息
+    private void checkMissed() {
+        try {
+            long current = currentSeq();
+            long local = localCacheManager.epoch();
+            if (current < local) {
+                // redis中的序号被重置了：以redis的为准
+                log.warn("缓存失效序号被重置，本节点 = {}，redis = {}，清空一级缓存", local, current);
+                localCacheManager.resetEpoch(current);
+                laggingSeq = 0L;
+            } else if (current > local) {
+                if (laggingSeq > 0 && local < laggingSeq) {
+                    // 上个周期就落后了，到现在还没追上：说明消息丢了
+                    log.warn("漏收缓存失效消息，本节点 = {}，redis = {}，清空一级缓存", local, current);
+                    localCacheManager.resetEpoch(current);
+                    laggingSeq = 0L;
+                } else {
+                    laggingSeq = current;
+                }
+            } else {
+                laggingSeq = 0L;
+            }
+        } catch (Exception e) {
+            log.error("检查缓存失效序号失败：{}", e.getMessage());
+        }
+    }
+
+    private long currentSeq() {
+        String seq = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_INVALIDATE_SEQ_KEY);
+        return StrUtil.isBlank(seq) ? 0L : Long.parseLong(seq);
+    }
+}
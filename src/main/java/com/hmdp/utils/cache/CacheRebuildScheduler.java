@@ -0,0 +1,245 @@
+package com.hmdp.utils.cache;
+
+import com.hmdp.config.CacheRebuildProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 描述：共享的缓存重建调度器
+ *
+ *  原来CacheClient和ShopServiceImpl各自有一个newFixedThreadPool(10)，队列是无界的。大量key同时逻辑过期时，
+ *  会堆积成千上万个重复的重建任务。这里统一成一个：
+ *  1.同一个key在排队或者执行中时，重复提交直接复用同一个任务，不会重复重建。
+ *  2.队列有界：满了直接拒绝，调用方继续返回旧数据，下次访问再提交。用信号量计数，并发提交也不会超过容量。
+ *  3.按key的热度排优先级：每次提交（也就是每次读到过期数据）热度+1，越热的key越先重建。热度定时减半，避免历史热度一直占优。
+ *    大量key同时过期时，每个key第一次提交时的热度都差不多，排队期间被重复提交的key热度涨到入队时的2倍以上，
+ *    就从队列里取出来按新的热度重新放回去，不会退化成先进先出。
+ *  4.统计队列长度、重建耗时、排队耗时等指标。
+ *
+ * @author txl
+ * @date 2026-10-17 17:15
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final CacheRebuildProperties properties;
+
+    private final ThreadPoolExecutor executor;
+
+    // 排队中或执行中的任务：key -> 任务
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    // key的热度
+    private final Map<String, AtomicLong> hotness = new ConcurrentHashMap<>();
+
+    // 任务序号：热度相同时先提交的先执行
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 队列的空位：提交时占一个，任务开始执行或者被拒绝时还回去
+    private final Semaphore queueSlots;
+
+    private final ScheduledExecutorService decayScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-rebuild-decay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 指标
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder reprioritized = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public CacheRebuildScheduler(CacheRebuildProperties properties) {
+        this.properties = properties;
+        this.queueSlots = new Semaphore(properties.getQueueCapacity());
+        AtomicInteger threadIndex = new AtomicInteger();
+        // PriorityBlockingQueue本身是无界的，容量由queueSlots控制
+        this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                r -> new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet()));
+        long decay = properties.getHotnessDecayMillis();
+        decayScheduler.scheduleWithFixedDelay(this::decayHotness, decay, decay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        decayScheduler.shutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * 提交重建任务：不会阻塞，调用方拿到future后可以不等结果，继续返回旧数据
+     * @param key 缓存key，同一个key同时只会有一个任务
+     * @param loader 重建逻辑
+     * @return 重建结果，被拒绝时是异常结束的future
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> loader) {
+        long hot = hotness.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+
+        // 1.已经在排队或执行中：复用，热度涨了很多的调整排队的位置
+        RebuildTask existing = pending.get(key);
+        if (existing != null) {
+            deduplicated.increment();
+            raisePriority(existing, hot);
+            return (CompletableFuture<T>) existing.future;
+        }
+
+        RebuildTask task = new RebuildTask(key, hot, sequence.incrementAndGet(), loader);
+        existing = pending.putIfAbsent(key, task);
+        if (existing != null) {
+            deduplicated.increment();
+            raisePriority(existing, hot);
+            return (CompletableFuture<T>) existing.future;
+        }
+
+        // 2.队列满了：拒绝
+        if (!queueSlots.tryAcquire()) {
+            reject(task);
+            return (CompletableFuture<T>) task.future;
+        }
+
+        try {
+            executor.execute(task);
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            queueSlots.release();
+            reject(task);
+        }
+        return (CompletableFuture<T>) task.future;
+    }
+
+    /**
+     * PriorityBlockingQueue中的元素改了优先级不会重新排序：热度到了入队时的2倍才从队列里取出来，改完再放回去，
+     * 每个任务最多调整log(热度)次。已经被线程取走的（执行中）取不出来，不用管。
+     * 任务在队列里说明核心线程都已经创建了，直接放回队列也会被执行。
+     */
+    private void raisePriority(RebuildTask task, long hot) {
+        if (hot < task.hotness * 2) {
+            return;
+        }
+        synchronized (task) {
+            if (hot >= task.hotness * 2 && executor.getQueue().remove(task)) {
+                task.hotness = hot;
+                executor.getQueue().offer(task);
+                reprioritized.increment();
+            }
+        }
+    }
+
+    /**
+     * key是否有重建任务在排队或执行中
+     */
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    private void reject(RebuildTask task) {
+        pending.remove(task.key, task);
+        rejected.increment();
+        task.future.completeExceptionally(new RejectedExecutionException("缓存重建队列已满，key = " + task.key));
+    }
+
+    // 热度减半，减到0的移除
+    private void decayHotness() {
+        hotness.values().forEach(h -> h.updateAndGet(v -> v >> 1));
+        hotness.entrySet().removeIf(e -> e.getValue().get() == 0L);
+    }
+
+    public Map<String, Object> stats() {
+        long done = completed.sum() + failed.sum();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("queueDepth", executor.getQueue().size());
+        map.put("queueCapacity", properties.getQueueCapacity());
+        map.put("active", executor.getActiveCount());
+        map.put("pending", pending.size());
+        map.put("submitted", submitted.sum());
+        map.put("deduplicated", deduplicated.sum());
+        map.put("reprioritized", reprioritized.sum());
+        map.put("rejected", rejected.sum());
+        map.put("completed", completed.sum());
+        map.put("failed", failed.sum());
+        map.put("avgLatencyMillis", done == 0 ? 0 : totalLatencyNanos.sum() / done / 1000000.0);
+        map.put("maxLatencyMillis", maxLatencyNanos.get() / 1000000.0);
+        map.put("avgQueueWaitMillis", done == 0 ? 0 : totalWaitNanos.sum() / done / 1000000.0);
+        return map;
+    }
+
+    /**
+     * 重建任务：热度高的先执行，热度相同的先提交的先执行
+     */
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+
+        private final String key;
+
+        // 只在不在队列中时修改，见raisePriority
+        private volatile long hotness;
+
+        private final long seq;
+
+        private final Supplier<?> loader;
+
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private final long submitNanos = System.nanoTime();
+
+        private RebuildTask(String key, long hotness, long seq, Supplier<?> loader) {
+            this.key = key;
+            this.hotness = hotness;
+            this.seq = seq;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            queueSlots.release();
+            long start = System.nanoTime();
+            totalWaitNanos.add(start - submitNanos);
+            try {
+                future.complete(loader.get());
+                completed.increment();
+            } catch (Throwable e) {
+                failed.increment();
+                log.error("缓存重建失败，key = {}", key, e);
+                future.completeExceptionally(e);
+            } finally {
+                pending.remove(key, this);
+                long latency = System.nanoTime() - start;
+                totalLatencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            if (hotness != other.hotness) {
+                return Long.compare(other.hotness, hotness);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.utils.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheWarmupProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 描述：启动时预热缓存
+ *
+ *  发布之后cache:shop:*、cache:shop:type、shop:geo:*都是冷的，刚开始的流量全部打到MySQL上。
+ *  1.按id游标分批读tb_shop（where id > lastId order by id limit batchSize），不会一次把整张表读进内存。
+ *  2.每批的商户缓存（逻辑过期格式）和GEO坐标各用一次pipeline写入redis，同时放进一级缓存。
+ *  3.最多concurrency个批次同时在写，读数据库的速度受写的速度限制。
+ *  4.ApplicationRunner执行完之后Spring Boot才会发布ReadinessState.ACCEPTING_TRAFFIC，
+ *    所以预热完成或者超过时间预算之前，就绪检查不会通过。超时后停止预热，没预热到的key按正常的缓存未命中处理。
+ *
+ * @author txl
+ * @date 2026-10-18 14:30
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    private final CacheWarmupProperties properties;
+
+    private final CacheClient cacheClient;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ShopMapper shopMapper;
+
+    private final ShopTypeMapper shopTypeMapper;
+
+    private final ApplicationAvailability applicationAvailability;
+
+    // 预热状态：PENDING、RUNNING、DONE、TIMEOUT、FAILED、DISABLED
+    private volatile String state = "PENDING";
+
+    private final AtomicLong shops = new AtomicLong();
+
+    private final AtomicInteger batches = new AtomicInteger();
+
+    private final AtomicInteger failedBatches = new AtomicInteger();
+
+    private volatile long costMillis;
+
+    public CacheWarmer(CacheWarmupProperties properties, CacheClient cacheClient,
+                       StringRedisTemplate stringRedisTemplate, ShopMapper shopMapper, ShopTypeMapper shopTypeMapper,
+                       ApplicationAvailability applicationAvailability) {
+        this.properties = properties;
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shopMapper = shopMapper;
+        this.shopTypeMapper = shopTypeMapper;
+        this.applicationAvailability = applicationAvailability;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.isEnabled()) {
+            state = "DISABLED";
+            return;
+        }
+        state = "RUNNING";
+        long begin = System.currentTimeMillis();
+        long deadline = begin + properties.getTimeBudgetMillis();
+        int concurrency = Math.max(1, properties.getConcurrency());
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "cache-warmup-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore permits = new Semaphore(concurrency);
+        boolean complete = false;
+        try {
+            // 1.商户类型：只有一个key
+            List<ShopType> shopTypes = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+            cacheClient.setList(RedisConstants.CACHE_SHOP_TYPE_KEY, shopTypes,
+                    RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+
+            // 2.商户：按id游标分批读，拿到写入许可后交给线程池写
+            long lastId = 0L;
+            while (true) {
+                long loadBegin = System.nanoTime();
+                List<Shop> batch = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + properties.getBatchSize()));
+                long loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadBegin);
+                if (batch.isEmpty()) {
+                    complete = true;
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1).getId();
+                if (!permits.tryAcquire(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                pool.execute(() -> {
+                    try {
+                        writeBatch(batch, loadMillis);
+                    } catch (Exception e) {
+                        failedBatches.incrementAndGet();
+                        log.error("缓存预热失败，商户id范围 = [{}, {}]，{}",
+                                batch.get(0).getId(), batch.get(batch.size() - 1).getId(), e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
+                if (batch.size() < properties.getBatchSize()) {
+                    complete = true;
+                    break;
+                }
+            }
+
+            // 3.等待写完
+            pool.shutdown();
+            complete &= pool.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            state = complete ? "DONE" : "TIMEOUT";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state = "TIMEOUT";
+        } catch (Exception e) {
+            // 预热失败不影响启动，只是缓存是冷的
+            state = "FAILED";
+            log.error("缓存预热失败", e);
+        } finally {
+            pool.shutdownNow();
+            costMillis = System.currentTimeMillis() - begin;
+        }
+        log.info("缓存预热结束，状态 = {}，商户个数 = {}，批次 = {}，失败批次 = {}，耗时 = {}ms",
+                state, shops.get(), batches.get(), failedBatches.get(), costMillis);
+    }
+
+    // 一批商户：缓存一次pipeline，GEO坐标一次pipeline。这一批的查询耗时记为每个商户的重建耗时，过期前按它提前刷新
+    private void writeBatch(List<Shop> batch, long loadMillis) {
+        Map<String, Shop> values = new LinkedHashMap<>(batch.size() * 2);
+        for (Shop shop : batch) {
+            values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        cacheClient.setBatchWithLogicExpire(values, RedisConstants.CACHE_SHOP_LOGIC_TTL, TimeUnit.SECONDS, loadMillis);
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Shop shop : batch) {
+                if (shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                byte[] key = (RedisConstants.SHOP_GEO_KEY + shop.getTypeId()).getBytes(StandardCharsets.UTF_8);
+                connection.geoAdd(key, new Point(shop.getX(), shop.getY()),
+                        shop.getId().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        shops.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("state", state);
+        map.put("readiness", applicationAvailability.getReadinessState());
+        map.put("shops", shops.get());
+        map.put("batches", batches.get());
+        map.put("failedBatches", failedBatches.get());
+        map.put("costMillis", costMillis);
+        return map;
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.utils.cache;
+
+import com.hmdp.config.HotKeyProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 描述：热点key探测
+ *
+ *  秒杀、热门商户的流量集中在少数几个key上，会把redis的某一个分片打满。
+ *  1.CacheClient每次访问缓存时按比例采样，采样到的key计入count-min sketch：固定大小的计数矩阵，key再多内存也不会涨，
+ *    估计值只会偏大不会偏小。
+ *  2.时间衰减：每个衰减间隔D所有计数减半。访问速率为r时，减半前的计数稳定在2rD，所以 QPS ≈ 计数 / 2D。
+ *  3.估计QPS超过阈值的key标记为热点，LocalCacheManager把热点key固定在本地缓存中，短TTL，没有配置一级缓存的前缀也一样。
+ *    每次衰减时重新计算热点key的QPS，降到阈值一半以下的移除，避免在阈值附近反复进出。
+ *
+ * @author txl
+ * @date 2026-10-18 16:10
+ */
+@Component
+public class HotKeyDetector {
+
+    private final HotKeyProperties properties;
+
+    // 计数矩阵：depth行，每行width个计数
+    private final AtomicLongArray counters;
+
+    private final int width;
+
+    private final int depth;
+
+    // 每次采样计数的权重
+    private final long weight;
+
+    // 热点key -> 上次衰减时计算的QPS
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-key-decay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HotKeyDetector(HotKeyProperties properties) {
+        this.properties = properties;
+        this.width = Integer.highestOneBit(Math.max(2, properties.getSketchWidth() - 1) << 1);
+        this.depth = Math.max(1, properties.getSketchDepth());
+        this.counters = new AtomicLongArray(width * depth);
+        this.weight = Math.max(1L, Math.round(1.0 / properties.getSampleRatio()));
+        long decay = properties.getDecayMillis();
+        if (properties.isEnabled()) {
+            scheduler.scheduleWithFixedDelay(this::decay, decay, decay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 记录一次访问：按比例采样
+     */
+    public void record(String key) {
+        if (!properties.isEnabled() || ThreadLocalRandom.current().nextDouble() >= properties.getSampleRatio()) {
+            return;
+        }
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(hash, row), weight));
+        }
+        long qps = qps(estimate);
+        if (qps >= properties.getQpsThreshold() && !hotKeys.containsKey(key)
+                && hotKeys.size() < properties.getMaxHotKeys()) {
+            hotKeys.put(key, qps);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return !hotKeys.isEmpty() && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前的热点key和估计的QPS，按QPS倒序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("key", entry.getKey());
+            map.put("qps", entry.getValue());
+            result.add(map);
+        }
+        return result;
+    }
+
+    // 先更新热点key的QPS（此时是减半前的计数），再把所有计数减半
+    private void decay() {
+        for (String key : hotKeys.keySet()) {
+            long qps = qps(estimate(key));
+            if (qps * 2 < properties.getQpsThreshold()) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, qps);
+            }
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            if (counters.get(i) != 0L) {
+                counters.updateAndGet(i, v -> v >> 1);
+            }
+        }
+    }
+
+    private long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    private long qps(long count) {
+        return count * 1000L / (2L * properties.getDecayMillis());
+    }
+
+    private int index(long hash, int row) {
+        // 每行用不同的种子重新混合一次
+        long h = mix(hash + row * 0x9E3779B97F4A7C15L);
+        return row * width + (int) (h & (width - 1));
+    }
+
+    // FNV-1a
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // MurmurHash3的fmix64
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
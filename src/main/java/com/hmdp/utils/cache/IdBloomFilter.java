@@ -0,0 +1,315 @@
+package com.hmdp.utils.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.BloomFilterProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 描述：id布隆过滤器，防止缓存穿透
+ *
+ *  缓存空值的方式在被人用随机id扫描时，会往redis写入大量的空值key，而且每个key还是会查一次数据库。
+ *  布隆过滤器判断不存在的id一定不存在，直接返回，不查redis也不查数据库。
+ *
+ *  1.位图存在redis中（bloom:shop、bloom:blog、bloom:voucher），所有节点共享。每个节点在堆内有一份拷贝，判断时只查本地，不走网络。
+ *  2.启动时从数据库按id分批扫描构建本地位图，再用BITOP OR合并到redis中，合并结果再同步回本地，这样不会覆盖其他节点新增的id。
+ *  3.新增数据时：设置本地位图，SETBIT写redis，再通过发布订阅通知其他节点设置本地位图。
+ *      为了兜底漏收的消息，定时从redis同步整个位图到本地。
+ *  4.构建完成之前一律返回可能存在，不能误判。
+ *
+ * @author txl
+ * @date 2026-10-17 15:40
+ */
+@Slf4j
+@Component
+public class IdBloomFilter implements MessageListener {
+
+    // 每批扫描的id个数
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final BloomFilterProperties properties;
+
+    private final ShopMapper shopMapper;
+
+    private final BlogMapper blogMapper;
+
+    private final VoucherMapper voucherMapper;
+
+    // redis位图的key -> 过滤器
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IdBloomFilter(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                         BloomFilterProperties properties, ShopMapper shopMapper, BlogMapper blogMapper,
+                         VoucherMapper voucherMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.properties = properties;
+        this.shopMapper = shopMapper;
+        this.blogMapper = blogMapper;
+        this.voucherMapper = voucherMapper;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        // 位数：m = -n * ln(p) / (ln2)^2，向上取整到64的倍数；哈希函数个数：k = m / n * ln2
+        long n = properties.getExpectedInsertions();
+        long bits = (long) Math.ceil(-n * Math.log(properties.getFpp()) / (Math.log(2) * Math.log(2)));
+        bits = (bits + 63) / 64 * 64;
+        int hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+
+        filters.put(RedisConstants.BLOOM_SHOP_KEY, new Filter(RedisConstants.BLOOM_SHOP_KEY, bits, hashes));
+        filters.put(RedisConstants.BLOOM_BLOG_KEY, new Filter(RedisConstants.BLOOM_BLOG_KEY, bits, hashes));
+        filters.put(RedisConstants.BLOOM_VOUCHER_KEY, new Filter(RedisConstants.BLOOM_VOUCHER_KEY, bits, hashes));
+
+        // 先订阅再扫描：扫描期间其他节点新增的id也不会丢
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+
+        load(filters.get(RedisConstants.BLOOM_SHOP_KEY), shopMapper);
+        load(filters.get(RedisConstants.BLOOM_BLOG_KEY), blogMapper);
+        load(filters.get(RedisConstants.BLOOM_VOUCHER_KEY), voucherMapper);
+
+        long refresh = properties.getRefreshMillis();
+        scheduler.scheduleWithFixedDelay(this::refresh, refresh, refresh, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return false表示id一定不存在，true表示可能存在
+     */
+    public boolean mightContain(String key, Long id) {
+        Filter filter = filters.get(key);
+        if (filter == null || !filter.ready || id == null) {
+            return true;
+        }
+        for (long index : filter.indexes(id)) {
+            if (!filter.get(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增数据后调用：写本地、写redis、通知其他节点
+     */
+    public void add(String key, Long id) {
+        Filter filter = filters.get(key);
+        if (filter == null || id == null) {
+            return;
+        }
+        long[] indexes = filter.indexes(id);
+        for (long index : indexes) {
+            filter.set(index);
+        }
+        try {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long index : indexes) {
+                    connection.setBit(rawKey, index, true);
+                }
+                return null;
+            });
+            stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, key + " " + id);
+        } catch (Exception e) {
+            // 本地已经设置了，其他节点等定时同步
+            log.error("布隆过滤器写入redis失败，key = {}，id = {}，{}", key, id, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(" ");
+        Filter filter = filters.get(parts[0]);
+        if (filter != null) {
+            for (long index : filter.indexes(Long.parseLong(parts[1]))) {
+                filter.set(index);
+            }
+        }
+    }
+
+    // 按id分批扫描数据库：where id > lastId order by id limit 1000
+    private <T> void load(Filter filter, BaseMapper<T> mapper) {
+        long begin = System.currentTimeMillis();
+        long lastId = 0L;
+        long count = 0L;
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SCAN_BATCH_SIZE));
+            for (Object obj : ids) {
+                lastId = ((Number) obj).longValue();
+                for (long index : filter.indexes(lastId)) {
+                    filter.set(index);
+                }
+            }
+            count += ids.size();
+            if (ids.size() < SCAN_BATCH_SIZE) {
+                break;
+            }
+        }
+
+        // 合并到redis：BITOP OR，再把合并结果同步回本地
+        try {
+            byte[] local = filter.toBytes();
+            byte[] merged = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> {
+                byte[] rawKey = filter.key.getBytes(StandardCharsets.UTF_8);
+                byte[] tmpKey = (filter.key + ":" + UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+                connection.set(tmpKey, local);
+                connection.bitOp(RedisStringCommands.BitOperation.OR, rawKey, rawKey, tmpKey);
+                connection.del(tmpKey);
+                return connection.get(rawKey);
+            });
+            filter.merge(merged);
+        } catch (Exception e) {
+            log.error("布隆过滤器同步redis失败，key = {}，{}", filter.key, e.getMessage());
+        }
+
+        filter.ready = true;
+        log.info("布隆过滤器构建完成，key = {}，id个数 = {}，位数 = {}，哈希函数个数 = {}，耗时 = {}ms",
+                filter.key, count, filter.bits, filter.hashes, System.currentTimeMillis() - begin);
+    }
+
+    // 定时从redis同步位图：兜底漏收的新增消息
+    private void refresh() {
+        for (Filter filter : filters.values()) {
+            try {
+                byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                        connection.get(filter.key.getBytes(StandardCharsets.UTF_8)));
+                filter.merge(bytes);
+            } catch (Exception e) {
+                log.error("布隆过滤器同步redis失败，key = {}，{}", filter.key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 本地位图：用AtomicLongArray保存，设置位时CAS，不用加锁
+     */
+    private static class Filter {
+
+        private final String key;
+
+        private final long bits;
+
+        private final int hashes;
+
+        private final AtomicLongArray words;
+
+        private volatile boolean ready;
+
+        private Filter(String key, long bits, int hashes) {
+            this.key = key;
+            this.bits = bits;
+            this.hashes = hashes;
+            this.words = new AtomicLongArray((int) (bits >>> 6));
+        }
+
+        // 双重哈希：index_i = h1 + i * h2
+        private long[] indexes(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1L;
+            long[] indexes = new long[hashes];
+            for (int i = 0; i < hashes; i++) {
+                indexes[i] = Math.floorMod(h1 + i * h2, bits);
+            }
+            return indexes;
+        }
+
+        // MurmurHash3的fmix64
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        private void set(long index) {
+            long mask = 1L << (index & 63);
+            words.accumulateAndGet((int) (index >>> 6), mask, (a, b) -> a | b);
+        }
+
+        private boolean get(long index) {
+            return (words.get((int) (index >>> 6)) & (1L << (index & 63))) != 0;
+        }
+
+        /**
+         * 转成redis位图的格式：redis的位偏移0是第一个字节的最高位，所以每个字节要做一次位反转
+         */
+        private byte[] toBytes() {
+            byte[] bytes = new byte[(int) (bits >>> 3)];
+            for (int w = 0; w < words.length(); w++) {
+                long word = words.get(w);
+                for (int j = 0; j < 8; j++) {
+                    int b = (int) ((word >>> (j * 8)) & 0xFF);
+                    bytes[w * 8 + j] = (byte) (Integer.reverse(b) >>> 24);
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * 把redis的位图合并到本地
+         */
+        private void merge(byte[] bytes) {
+            if (bytes == null) {
+                return;
+            }
+            int length = Math.min(bytes.length, (int) (bits >>> 3));
+            for (int w = 0; w * 8 < length; w++) {
+                long word = 0L;
+                for (int j = 0; j < 8 && w * 8 + j < length; j++) {
+                    long b = Integer.reverse(bytes[w * 8 + j] & 0xFF) >>> 24;
+                    word |= b << (j * 8);
+                }
+                if (word != 0L) {
+                    words.accumulateAndGet(w, word, (a, b) -> a | b);
+                }
+            }
+        }
+    }
+}
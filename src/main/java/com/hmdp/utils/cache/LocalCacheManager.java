@@ -0,0 +1,205 @@
+package com.hmdp.utils.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.config.HotKeyProperties;
+import com.hmdp.config.LocalCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 描述：一级缓存管理，放在redis前面，热点key直接从JVM堆内返回，不用再走一次redis网络请求和JSON反序列化
+ *
+ *  1.每个key前缀对应一个Caffeine缓存，容量和TTL按前缀单独配置，淘汰策略是Caffeine的W-TinyLFU。
+ *  2.查询时按最长前缀匹配：比如cache:shop:type会匹配到cache:shop:type而不是cache:shop:
+ *  3.一级缓存存的是反序列化后的对象，调用方不要修改拿到的对象，否则会影响其他线程。
+ *  4.每个缓存项记录加载时的失效序号epoch：失效消息只删除比消息序号更早加载的缓存项，迟到的消息不会删掉更新的值。
+ *  5.HotKeyDetector探测到的热点key另外固定在pinned缓存中（短TTL），不受前缀配置和W-TinyLFU淘汰的影响。
+ *
+ * @author txl
+ * @date 2026-10-17 10:20
+ */
+@Slf4j
+@Component
+public class LocalCacheManager {
+
+    /**
+     * 空值占位：数据库中不存在的数据也缓存在一级缓存中，避免缓存穿透
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    /**
+     * key前缀 -> 缓存：按前缀倒序排列，保证先匹配到更长的前缀
+     */
+    private final TreeMap<String, Cache<String, Entry>> caches = new TreeMap<>((a, b) -> b.compareTo(a));
+
+    private final boolean enabled;
+
+    /**
+     * 热点key的固定缓存：所有前缀共用
+     */
+    private final Cache<String, Entry> pinned;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 当前节点已经处理到的失效序号
+     */
+    private final AtomicLong epoch = new AtomicLong();
+
+    /**
+     * 缓存项：值和加载时的失效序号
+     */
+    private static class Entry {
+        private final Object value;
+        private final long epoch;
+
+        private Entry(Object value, long epoch) {
+            this.value = value;
+            this.epoch = epoch;
+        }
+    }
+
+    public LocalCacheManager(LocalCacheProperties properties, HotKeyProperties hotKeyProperties,
+                             HotKeyDetector hotKeyDetector) {
+        this.enabled = properties.isEnabled();
+        this.hotKeyDetector = hotKeyDetector;
+        this.pinned = Caffeine.newBuilder()
+                .maximumSize(hotKeyProperties.getMaxHotKeys())
+                .expireAfterWrite(hotKeyProperties.getPinTtlMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        for (Map.Entry<String, String> entry : properties.getSpecs().entrySet()) {
+            caches.put(entry.getKey(), Caffeine.from(entry.getValue()).recordStats().build());
+            log.info("一级缓存：前缀 = {}，配置 = {}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 按最长前缀找到key所属的缓存，没有配置返回null
+     */
+    private Cache<String, Entry> cacheFor(String key) {
+        if (!enabled) {
+            return null;
+        }
+        // 倒序排列后，第一个是key前缀的就是最长的前缀
+        for (Map.Entry<String, Cache<String, Entry>> entry : caches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 缓存的对象，命中空值返回NULL_VALUE，未命中返回null
+     */
+    public Object get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        Cache<String, Entry> cache = cacheFor(key);
+        Entry entry = cache == null ? null : cache.getIfPresent(key);
+        if (entry == null && hotKeyDetector.isHot(key)) {
+            entry = pinned.getIfPresent(key);
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 当前的失效序号：在查询redis之前获取，写一级缓存时带上，避免查询期间收到的失效消息被漏掉
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    public void put(String key, Object value) {
+        put(key, value, epoch.get());
+    }
+
+    /**
+     * @param loadEpoch 开始加载数据时的失效序号
+     */
+    public void put(String key, Object value, long loadEpoch) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry = new Entry(value == null ? NULL_VALUE : value, loadEpoch);
+        Cache<String, Entry> cache = cacheFor(key);
+        if (cache != null) {
+            cache.put(key, entry);
+        }
+        if (hotKeyDetector.isHot(key)) {
+            pinned.put(key, entry);
+        }
+    }
+
+    public void invalidate(String key) {
+        Cache<String, Entry> cache = cacheFor(key);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+        pinned.invalidate(key);
+    }
+
+    /**
+     * 处理序号为seq的失效消息：只删除在seq之前加载的缓存项
+     */
+    public void invalidate(String key, long seq) {
+        Cache<String, Entry> cache = cacheFor(key);
+        if (cache != null) {
+            cache.asMap().computeIfPresent(key, (k, entry) -> entry.epoch < seq ? null : entry);
+        }
+        pinned.asMap().computeIfPresent(key, (k, entry) -> entry.epoch < seq ? null : entry);
+    }
+
+    /**
+     * 推进失效序号：序号只增不减
+     */
+    public void advanceEpoch(long seq) {
+        epoch.accumulateAndGet(seq, Math::max);
+    }
+
+    public void invalidateAll() {
+        caches.values().forEach(Cache::invalidateAll);
+        pinned.invalidateAll();
+    }
+
+    /**
+     * 清空一级缓存并重置失效序号：漏收了失效消息，或者redis中的序号被重置时使用
+     */
+    public void resetEpoch(long seq) {
+        invalidateAll();
+        epoch.set(seq);
+    }
+
+    /**
+     * 各个前缀的命中、未命中、淘汰次数
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Cache<String, Entry>> entry : caches.entrySet()) {
+            result.put(entry.getKey(), stats(entry.getValue()));
+        }
+        result.put("pinned", stats(pinned));
+        return result;
+    }
+
+    private static Map<String, Object> stats(Cache<String, Entry> cache) {
+        CacheStats stats = cache.stats();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", cache.estimatedSize());
+        map.put("hitCount", stats.hitCount());
+        map.put("missCount", stats.missCount());
+        map.put("hitRate", stats.hitRate());
+        map.put("evictionCount", stats.evictionCount());
+        return map;
+    }
+}
@@ -0,0 +1,55 @@
+package com.hmdp.utils.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 描述：JVM内的请求合并（single-flight）
+ *
+ *  同一个key同时有多个线程缓存未命中时，只有第一个线程去执行加载逻辑（查数据库、抢分布式锁），
+ *  其他线程等待同一个CompletableFuture拿结果，不用每个线程都去抢锁、休眠重试、查redis。
+ *  加载结束后就移除，下一次未命中会重新加载，所以这里不缓存结果。
+ *
+ * @author txl
+ * @date 2026-10-17 16:30
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已经有线程在加载：等待它的结果
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+            }
+        }
+
+        // 当前线程负责加载
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 正在加载的key的个数
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,519 @@
+package com.hmdp.utils.cache.codec;
+
+import com.hmdp.entity.RedisData;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述：紧凑的二进制格式
+ *
+ *  JSON每个值都带着字段名，数字和时间都是文本，Shop这种对象大部分字节都花在字段名和引号上了，逻辑过期的格式还要解析两次。
+ *  这里按类的字段生成schema：字段按名字排序，只写字段值，不写字段名。
+ *
+ *  格式：魔数(1) 版本(1) 类型(1) schema哈希(4) ...
+ *      对象：空值位图 + 非空字段的值
+ *      列表：元素个数 + 每个元素（1字节是否为空 + 对象）
+ *      逻辑过期：过期时间毫秒 + 重建耗时 + 对象，一次解析就能拿到具体类型的data
+ *      data为null的逻辑过期（比如数据库中不存在）：单独的类型，schema哈希为0，只有过期时间和重建耗时，解码成任何类型都可以
+ *  整数用zigzag变长编码，double是8字节、float是4字节定长，时间按UTC存秒和纳秒，字符串是长度 + UTF-8。
+ *
+ *  schema哈希由字段名和字段类型算出来，实体类加减字段后哈希变了，旧数据解码返回null，按缓存未命中处理，不会解析出错乱的对象。
+ *  魔数0xCB不可能是JSON的第一个字节，所以可以和JSON格式的旧数据共存，见{@link CompatibleCacheCodec}。
+ *
+ * @author txl
+ * @date 2026-10-18 09:30
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte MAGIC = (byte) 0xCB;
+
+    private static final byte VERSION = 1;
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_LIST = 1;
+    private static final byte KIND_LOGICAL = 2;
+    private static final byte KIND_LOGICAL_NULL = 3;
+
+    // 头部长度：魔数 + 版本 + 类型 + schema哈希
+    private static final int HEADER_LENGTH = 7;
+
+    private static final int T_LONG = 1;
+    private static final int T_INT = 2;
+    private static final int T_DOUBLE = 3;
+    // 4是原来按8字节写的float，不再使用：类型码参与schema哈希，有float字段的类换了类型码，旧数据按未命中处理
+    private static final int T_BOOLEAN = 5;
+    private static final int T_STRING = 6;
+    private static final int T_DATE_TIME = 7;
+    private static final int T_FLOAT = 8;
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * 是否支持这个类型：所有字段都是基本类型、包装类型、String、LocalDateTime，并且有无参构造
+     */
+    public boolean supports(Class<?> type) {
+        return schema(type).supported;
+    }
+
+    /**
+     * 列表的元素都是同一个支持的类型才能用二进制
+     */
+    public boolean supportsList(List<?> values) {
+        Class<?> type = elementType(values);
+        if (type == null) {
+            return true;
+        }
+        for (Object value : values) {
+            if (value != null && value.getClass() != type) {
+                return false;
+            }
+        }
+        return supports(type);
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = supportedSchema(value.getClass());
+        Writer out = new Writer(64);
+        out.header(KIND_OBJECT, schema.hash);
+        writeObject(out, schema, value);
+        return out.toBytes();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        Schema schema = supportedSchema(type);
+        if (!checkHeader(bytes, KIND_OBJECT, schema.hash)) {
+            return null;
+        }
+        return type.cast(readObject(new Reader(bytes, HEADER_LENGTH), schema));
+    }
+
+    @Override
+    public byte[] encodeList(List<?> values) {
+        Class<?> type = elementType(values);
+        Schema schema = type == null ? null : supportedSchema(type);
+        Writer out = new Writer(16 + values.size() * 32);
+        out.header(KIND_LIST, schema == null ? 0 : schema.hash);
+        out.varint(values.size());
+        for (Object value : values) {
+            if (value == null) {
+                out.write(0);
+                continue;
+            }
+            out.write(1);
+            writeObject(out, schema, value);
+        }
+        return out.toBytes();
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        Schema schema = supportedSchema(type);
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC || bytes[1] != VERSION || bytes[2] != KIND_LIST) {
+            return null;
+        }
+        Reader in = new Reader(bytes, HEADER_LENGTH);
+        int size = in.varint();
+        if (size == 0) {
+            return new ArrayList<>();
+        }
+        if (readHash(bytes) != schema.hash) {
+            return null;
+        }
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.read() == 0 ? null : type.cast(readObject(in, schema)));
+        }
+        return list;
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Object data = redisData.getData();
+        Schema schema = data == null ? null : supportedSchema(data.getClass());
+        Writer out = new Writer(80);
+        out.header(schema == null ? KIND_LOGICAL_NULL : KIND_LOGICAL, schema == null ? 0 : schema.hash);
+        out.varlong(redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        Long rebuildMillis = redisData.getRebuildMillis();
+        // 0表示没有，其他值加1
+        out.varlong(rebuildMillis == null ? 0L : rebuildMillis + 1);
+        if (schema != null) {
+            writeObject(out, schema, data);
+        }
+        return out.toBytes();
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        Schema schema = supportedSchema(type);
+        boolean nullData = checkHeader(bytes, KIND_LOGICAL_NULL, 0);
+        if (!nullData && !checkHeader(bytes, KIND_LOGICAL, schema.hash)) {
+            return null;
+        }
+        Reader in = new Reader(bytes, HEADER_LENGTH);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.varlong()), ZoneOffset.UTC));
+        long rebuildMillis = in.varlong();
+        redisData.setRebuildMillis(rebuildMillis == 0L ? null : rebuildMillis - 1);
+        redisData.setData(nullData ? null : readObject(in, schema));
+        return redisData;
+    }
+
+    private Schema supportedSchema(Class<?> type) {
+        Schema schema = schema(type);
+        if (!schema.supported) {
+            throw new UnsupportedOperationException("二进制缓存格式不支持的类型：" + type.getName());
+        }
+        return schema;
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static Class<?> elementType(List<?> values) {
+        for (Object value : values) {
+            if (value != null) {
+                return value.getClass();
+            }
+        }
+        return null;
+    }
+
+    private static boolean checkHeader(byte[] bytes, byte kind, int hash) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == VERSION && bytes[2] == kind
+                && readHash(bytes) == hash;
+    }
+
+    private static int readHash(byte[] bytes) {
+        return (bytes[3] & 0xFF) << 24 | (bytes[4] & 0xFF) << 16 | (bytes[5] & 0xFF) << 8 | (bytes[6] & 0xFF);
+    }
+
+    private static void writeObject(Writer out, Schema schema, Object value) {
+        try {
+            // 空值位图
+            Object[] values = new Object[schema.fields.length];
+            byte[] nulls = new byte[(schema.fields.length + 7) >>> 3];
+            for (int i = 0; i < schema.fields.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nulls[i >>> 3] |= 1 << (i & 7);
+                }
+            }
+            out.write(nulls);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if (values[i] != null) {
+                    writeValue(out, schema.types[i], values[i]);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readObject(Reader in, Schema schema) {
+        try {
+            Object value = schema.constructor.newInstance();
+            byte[] nulls = in.read((schema.fields.length + 7) >>> 3);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                    schema.fields[i].set(value, readValue(in, schema.types[i]));
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeValue(Writer out, int type, Object value) {
+        switch (type) {
+            case T_LONG:
+                out.varlong(((Number) value).longValue());
+                break;
+            case T_INT:
+                out.varlong(((Number) value).intValue());
+                break;
+            case T_DOUBLE:
+                out.fixed64(Double.doubleToRawLongBits((Double) value));
+                break;
+            case T_FLOAT:
+                out.fixed32(Float.floatToIntBits((Float) value));
+                break;
+            case T_BOOLEAN:
+                out.write((Boolean) value ? 1 : 0);
+                break;
+            case T_STRING:
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.varint(bytes.length);
+                out.write(bytes);
+                break;
+            case T_DATE_TIME:
+                LocalDateTime time = (LocalDateTime) value;
+                out.varlong(time.toEpochSecond(ZoneOffset.UTC));
+                out.varint(time.getNano());
+                break;
+            default:
+                throw new IllegalStateException("未知的字段类型：" + type);
+        }
+    }
+
+    private static Object readValue(Reader in, int type) {
+        switch (type) {
+            case T_LONG:
+                return in.varlong();
+            case T_INT:
+                return (int) in.varlong();
+            case T_DOUBLE:
+                return Double.longBitsToDouble(in.fixed64());
+            case T_FLOAT:
+                return Float.intBitsToFloat(in.fixed32());
+            case T_BOOLEAN:
+                return in.read() != 0;
+            case T_STRING:
+                int length = in.varint();
+                return new String(in.read(length), StandardCharsets.UTF_8);
+            case T_DATE_TIME:
+                long seconds = in.varlong();
+                return LocalDateTime.ofEpochSecond(seconds, in.varint(), ZoneOffset.UTC);
+            default:
+                throw new IllegalStateException("未知的字段类型：" + type);
+        }
+    }
+
+    /**
+     * 类的schema：非static、非transient的字段，包括父类的，按字段名排序
+     */
+    private static class Schema {
+
+        private final boolean supported;
+
+        private final Field[] fields;
+
+        private final int[] types;
+
+        private final int hash;
+
+        private final Constructor<?> constructor;
+
+        private Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        list.add(field);
+                    }
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+
+            boolean ok = true;
+            int h = type.getSimpleName().hashCode();
+            Field[] fieldArray = list.toArray(new Field[0]);
+            int[] typeArray = new int[fieldArray.length];
+            for (int i = 0; i < fieldArray.length; i++) {
+                typeArray[i] = typeOf(fieldArray[i].getType());
+                ok &= typeArray[i] != 0;
+                h = 31 * h + fieldArray[i].getName().hashCode();
+                h = 31 * h + typeArray[i];
+            }
+
+            Constructor<?> ctor = null;
+            try {
+                ctor = type.getDeclaredConstructor();
+                ctor.setAccessible(true);
+                for (Field field : fieldArray) {
+                    field.setAccessible(true);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                ok = false;
+            }
+
+            this.supported = ok && !type.isInterface() && !Modifier.isAbstract(type.getModifiers());
+            this.fields = this.supported ? fieldArray : new Field[0];
+            this.types = this.supported ? typeArray : new int[0];
+            this.hash = h;
+            this.constructor = ctor;
+        }
+
+        private static int typeOf(Class<?> c) {
+            if (c == Long.class || c == long.class) {
+                return T_LONG;
+            }
+            if (c == Integer.class || c == int.class) {
+                return T_INT;
+            }
+            if (c == Double.class || c == double.class) {
+                return T_DOUBLE;
+            }
+            if (c == Float.class || c == float.class) {
+                return T_FLOAT;
+            }
+            if (c == Boolean.class || c == boolean.class) {
+                return T_BOOLEAN;
+            }
+            if (c == String.class) {
+                return T_STRING;
+            }
+            if (c == LocalDateTime.class) {
+                return T_DATE_TIME;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 写缓冲：按需扩容
+     */
+    private static class Writer {
+
+        private byte[] buf;
+
+        private int pos;
+
+        private Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        private void header(byte kind, int hash) {
+            ensure(HEADER_LENGTH);
+            buf[pos++] = MAGIC;
+            buf[pos++] = VERSION;
+            buf[pos++] = kind;
+            buf[pos++] = (byte) (hash >>> 24);
+            buf[pos++] = (byte) (hash >>> 16);
+            buf[pos++] = (byte) (hash >>> 8);
+            buf[pos++] = (byte) hash;
+        }
+
+        private void write(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        // 非负整数的变长编码：每字节7位，最高位表示后面还有
+        private void varint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        // zigzag：绝对值小的负数也只占很少的字节
+        private void varlong(long v) {
+            ensure(10);
+            v = (v << 1) ^ (v >> 63);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void fixed64(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        private void fixed32(int v) {
+            ensure(4);
+            for (int i = 24; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        private byte[] toBytes() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] buf;
+
+        private int pos;
+
+        private Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private int read() {
+            return buf[pos++] & 0xFF;
+        }
+
+        private byte[] read(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        private int varint() {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = buf[pos++];
+                v |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+        }
+
+        private long varlong() {
+            long v = 0L;
+            for (int shift = 0; ; shift += 7) {
+                int b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return (v >>> 1) ^ -(v & 1);
+                }
+            }
+        }
+
+        private long fixed64() {
+            long v = 0L;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private int fixed32() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+    }
+}
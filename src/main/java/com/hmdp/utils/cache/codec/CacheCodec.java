@@ -0,0 +1,35 @@
+package com.hmdp.utils.cache.codec;
+
+import com.hmdp.entity.RedisData;
+
+import java.util.List;
+
+/**
+ * 描述：缓存值的编解码
+ *
+ *  redis中的缓存值统一按byte[]存取，具体格式由实现类决定。
+ *  空数组表示空值（数据库中不存在），和原来字符串格式的""一致，所以编解码都不会处理空数组。
+ *
+ * @author txl
+ * @date 2026-10-18 09:20
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    byte[] encodeList(List<?> values);
+
+    <T> List<T> decodeList(byte[] bytes, Class<T> type);
+
+    /**
+     * 带逻辑过期时间的缓存值
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * @return data已经是type类型的RedisData
+     */
+    <T> RedisData decodeLogical(byte[] bytes, Class<T> type);
+}
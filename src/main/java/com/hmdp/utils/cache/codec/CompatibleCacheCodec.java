@@ -0,0 +1,66 @@
+package com.hmdp.utils.cache.codec;
+
+import com.hmdp.entity.RedisData;
+
+import java.util.List;
+
+/**
+ * 描述：兼容两种格式的编解码，CacheClient实际用的是这个
+ *
+ *  1.写：按配置用二进制或者JSON，二进制不支持的类型（字段里有集合、嵌套对象等）自动用JSON。
+ *  2.读：第一个字节是二进制的魔数就按二进制解码，否则按JSON解码。
+ *  所以从JSON切换到二进制（或者切回来）不用清缓存，旧格式的数据照样能读，过期或者重建后自然换成新格式。
+ *
+ * @author txl
+ * @date 2026-10-18 10:10
+ */
+public class CompatibleCacheCodec implements CacheCodec {
+
+    private final BinaryCacheCodec binary = new BinaryCacheCodec();
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    // 写入是否优先用二进制
+    private final boolean preferBinary;
+
+    public CompatibleCacheCodec(boolean preferBinary) {
+        this.preferBinary = preferBinary;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return preferBinary && binary.supports(value.getClass()) ? binary.encode(value) : json.encode(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return isBinary(bytes) ? binary.decode(bytes, type) : json.decode(bytes, type);
+    }
+
+    @Override
+    public byte[] encodeList(List<?> values) {
+        return preferBinary && binary.supportsList(values) ? binary.encodeList(values) : json.encodeList(values);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        return isBinary(bytes) ? binary.decodeList(bytes, type) : json.decodeList(bytes, type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        // data为null时二进制也能写：不需要schema
+        Object data = redisData.getData();
+        return preferBinary && (data == null || binary.supports(data.getClass()))
+                ? binary.encodeLogical(redisData) : json.encodeLogical(redisData);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        return isBinary(bytes) ? binary.decodeLogical(bytes, type) : json.decodeLogical(bytes, type);
+    }
+
+    private static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == BinaryCacheCodec.MAGIC;
+    }
+}
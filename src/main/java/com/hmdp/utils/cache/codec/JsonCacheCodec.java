@@ -0,0 +1,52 @@
+package com.hmdp.utils.cache.codec;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.RedisData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 描述：JSON格式，和原来StringRedisTemplate + hutool JSON存的格式一样
+ *
+ * @author txl
+ * @date 2026-10-18 09:25
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeList(List<?> values) {
+        return JSONUtil.toJsonStr(values).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        return JSONUtil.toList(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        // 两次解析：先解析RedisData，再把data的JSONObject解析成具体类型
+        RedisData redisData = decode(bytes, RedisData.class);
+        if (redisData.getData() != null) {
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        }
+        return redisData;
+    }
+}
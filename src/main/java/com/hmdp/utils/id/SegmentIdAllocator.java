@@ -0,0 +1,183 @@
+package com.hmdp.utils.id;
+
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述：号段模式的序列号分配
+ *
+ *  RedisIdWorker原来每个id都要INCR一次，秒杀请求在执行lua脚本之前多一次网络往返。
+ *  1.一次 INCRBY icr:{prefix}:{date} step 取一段序列号 [end - step + 1, end]，在本地用AtomicLong发号。
+ *  2.双缓冲：当前号段发到剩余prefetchRatio时，异步预取下一段，用完时直接切换，不用等redis。
+ *  3.序列号还是从原来的key里取，和redis模式共用一个计数器：重启后没发完的号段直接丢弃，
+ *    redis的计数只增不减，所以不会重复发号，两种模式来回切换也不会重复。
+ *  4.号段和日期绑定：跨天时旧号段作废，从新一天的key重新取。
+ *
+ * @author txl
+ * @date 2026-10-19 09:30
+ */
+@Slf4j
+@Component
+public class SegmentIdAllocator {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IdProperties properties;
+
+    // 业务前缀 -> 双缓冲
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 指标
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder syncLoaded = new LongAdder();
+
+    public SegmentIdAllocator(StringRedisTemplate stringRedisTemplate, IdProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 取下一个序列号
+     * @param keyPrefix 业务前缀
+     * @param date 日期，和RedisIdWorker中key的日期部分一致
+     */
+    public long nextSequence(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long seq = segment.cursor.getAndIncrement();
+                if (seq <= segment.end) {
+                    // 只有一个线程能拿到prefetchAt这个号，不用再加标记
+                    if (seq == segment.prefetchAt) {
+                        prefetch(buffer, segment);
+                    }
+                    return seq;
+                }
+            }
+            buffer.switchTo(segment, date);
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, Segment segment) {
+        CompletableFuture<Segment> next = CompletableFuture.supplyAsync(() -> load(buffer.keyPrefix, segment.date), prefetchExecutor);
+        synchronized (buffer) {
+            if (buffer.current == segment && buffer.next == null) {
+                buffer.next = next;
+                prefetched.increment();
+            }
+        }
+    }
+
+    // INCRBY icr:{prefix}:{date} step
+    private Segment load(String keyPrefix, String date) {
+        long step = properties.getSegmentStep();
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, step);
+        loaded.increment();
+        long start = end - step + 1;
+        long prefetchAt = start + (long) (step * (1 - properties.getPrefetchRatio()));
+        return new Segment(date, start, end, Math.min(prefetchAt, end));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("loaded", loaded.sum());
+        map.put("prefetched", prefetched.sum());
+        map.put("syncLoaded", syncLoaded.sum());
+        Map<String, Object> remaining = new LinkedHashMap<>();
+        buffers.forEach((prefix, buffer) -> {
+            Segment segment = buffer.current;
+            if (segment != null) {
+                remaining.put(prefix, Math.max(0L, segment.end - segment.cursor.get() + 1));
+            }
+        });
+        map.put("remaining", remaining);
+        return map;
+    }
+
+    /**
+     * 一段序列号
+     */
+    private static class Segment {
+
+        private final String date;
+
+        private final AtomicLong cursor;
+
+        private final long end;
+
+        // 发到这个号时预取下一段
+        private final long prefetchAt;
+
+        private Segment(String date, long start, long end, long prefetchAt) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    /**
+     * 当前号段 + 预取中的下一段
+     */
+    private class SegmentBuffer {
+
+        private final String keyPrefix;
+
+        private volatile Segment current;
+
+        private CompletableFuture<Segment> next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        /**
+         * 当前号段用完或者跨天了：优先用预取好的下一段，没有或者日期不对就同步取
+         * @param expired 调用方看到的号段，已经被其他线程切换过就直接返回重试
+         */
+        private synchronized void switchTo(Segment expired, String date) {
+            if (current != expired) {
+                return;
+            }
+            Segment segment = null;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.warn("预取号段失败，keyPrefix = {}，{}", keyPrefix, e.getMessage());
+                }
+                next = null;
+            }
+            if (segment == null || !segment.date.equals(date)) {
+                segment = load(keyPrefix, date);
+                syncLoaded.increment();
+            }
+            current = segment;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.hmdp.utils.id;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.IdProperties;
+import com.hmdp.constant.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 描述：snowflake模式的全局id：完全在本地生成，redis不可用时也能发号
+ *
+ *  id的格式和RedisIdWorker一致，按时间有序，新老id可以混在一张表里排序：
+ *      高32位：基于20220101-00:00:00的秒数，和RedisIdWorker的算法一样（LocalDateTime.now()按UTC换算）
+ *      低32位：10位worker id + 22位序列号，每个节点每秒4194304个id
+ *  1.worker id启动时从redis租用：SET id:worker:{i} owner NX PX lease，后台每1/3租约续期一次。
+ *    租约丢了（过期后被其他节点拿走）就重新申请一个，租约到期前没能续上就拒绝发号，避免和新的持有者重复。
+ *  2.无锁：上一次的 秒数 << 22 | 序列号 放在一个AtomicLong中，CAS更新。
+ *  3.时钟回拨：沿用上一次的秒数继续发序列号；序列号用完时等到下一秒，回拨超过maxBackwardMillis就报错。
+ *  注意：低32位和redis模式的计数不是一个空间，同一时刻不要有的节点用snowflake、有的节点用redis或segment模式。
+ *
+ * @author txl
+ * @date 2026-10-19 11:00
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator {
+
+    // 开始的时间戳：和RedisIdWorker一致
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+
+    private static final int WORKER_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 22;
+
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+
+        // 释放和解锁一样：是自己的才删除
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IdProperties properties;
+
+    // 租约的持有者标识
+    private final String owner = UUID.randomUUID().toString(true);
+
+    // 和LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)保持一致
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    // 秒数 << 22 | 序列号
+    private final AtomicLong state = new AtomicLong();
+
+    private final AtomicLong backwardCount = new AtomicLong();
+
+    private final ScheduledExecutorService renewScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-renew");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile int workerId = -1;
+
+    // 租约的截止时间：System.nanoTime()，不受系统时钟调整影响
+    private volatile long leaseDeadlineNanos;
+
+    public SnowflakeIdGenerator(StringRedisTemplate stringRedisTemplate, IdProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (properties.getMode() != IdProperties.Mode.SNOWFLAKE) {
+            return;
+        }
+        acquire();
+        long interval = properties.getWorkerLeaseMillis() / 3;
+        renewScheduler.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        renewScheduler.shutdownNow();
+        if (workerId >= 0) {
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT,
+                        Collections.singletonList(RedisConstants.ID_WORKER_KEY + workerId), owner);
+            } catch (Exception e) {
+                log.warn("释放worker id失败，workerId = {}，{}", workerId, e.getMessage());
+            }
+        }
+    }
+
+    public long nextId() {
+        if (System.nanoTime() - leaseDeadlineNanos > 0) {
+            throw new IllegalStateException("worker id的租约已过期，暂停发号，workerId = " + workerId);
+        }
+        while (true) {
+            long now = currentSecond();
+            long prev = state.get();
+            long prevSecond = prev >>> SEQUENCE_BITS;
+            long next;
+            if (now > prevSecond) {
+                next = now << SEQUENCE_BITS;
+            } else if ((prev & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 同一秒，或者时钟回拨了：沿用上一次的秒数
+                next = prev + 1;
+            } else {
+                // 这一秒的序列号用完了：等下一秒
+                if ((prevSecond - now) * 1000 > properties.getMaxBackwardMillis()) {
+                    throw new IllegalStateException("时钟回拨了" + (prevSecond - now) + "秒，拒绝发号");
+                }
+                LockSupport.parkNanos(100_000L);
+                continue;
+            }
+            if (state.compareAndSet(prev, next)) {
+                if (now < prevSecond) {
+                    backwardCount.incrementAndGet();
+                }
+                return (next >>> SEQUENCE_BITS) << 32 | (long) workerId << SEQUENCE_BITS | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    private long currentSecond() {
+        long millis = System.currentTimeMillis();
+        return (millis + timeZone.getOffset(millis)) / 1000 - BEGIN_TIMESTAMP;
+    }
+
+    // 依次尝试 SET id:worker:{i} owner NX PX lease，拿到第一个空闲的
+    private void acquire() {
+        long lease = properties.getWorkerLeaseMillis();
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            long start = System.nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(RedisConstants.ID_WORKER_KEY + i, owner, lease, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = i;
+                leaseDeadlineNanos = start + TimeUnit.MILLISECONDS.toNanos(lease);
+                log.info("租用worker id = {}", i);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的worker id，最多" + MAX_WORKERS + "个节点");
+    }
+
+    private void renew() {
+        try {
+            long start = System.nanoTime();
+            Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(RedisConstants.ID_WORKER_KEY + workerId),
+                    owner, String.valueOf(properties.getWorkerLeaseMillis()));
+            if (result != null && result == 1L) {
+                leaseDeadlineNanos = start + TimeUnit.MILLISECONDS.toNanos(properties.getWorkerLeaseMillis());
+                return;
+            }
+            log.warn("worker id = {}的租约已经丢失，重新申请", workerId);
+            acquire();
+        } catch (Exception e) {
+            // redis不可用：租约到期前还能继续发号，下次再续
+            log.error("worker id续期失败，workerId = {}，{}", workerId, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("workerId", workerId);
+        map.put("leaseRemainingMillis", TimeUnit.NANOSECONDS.toMillis(leaseDeadlineNanos - System.nanoTime()));
+        map.put("clockBackward", backwardCount.get());
+        return map;
+    }
+}
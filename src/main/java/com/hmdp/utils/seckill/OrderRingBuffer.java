@@ -0,0 +1,226 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 描述：多生产者、单消费者的环形缓冲区，替换seckillVoucher3中的ArrayBlockingQueue
+ *
+ *  ArrayBlockingQueue每次put/take都要加锁，队列容量1024 * 1024，堆积时上百万个VoucherOrder会进入老年代。
+ *  1.槽位启动时预分配，每个槽位是可以复用的事件对象，发布时只改字段，不创建对象。
+ *  2.生产者CAS抢序号，写完槽位后在published中标记这个序号已发布，不加锁。
+ *  3.先占槽位再执行lua脚本：满了直接拒绝，不会出现redis扣了库存订单却放不进队列的情况。
+ *    占了槽位后无论成功失败都要发布，失败的发布为空事件，消费者跳过。
+ *  4.消费者按序号顺序读，一次最多读batchSize个连续已发布的槽位，复制成VoucherOrder后释放槽位，整批交给handler。
+ *    释放了槽位不代表订单已经落库，inFlight()统计占了槽位但handler还没处理完的。
+ *
+ * @author txl
+ * @date 2026-10-19 14:00
+ */
+@Slf4j
+@Component
+public class OrderRingBuffer {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final int batchSize;
+
+    private final OrderEvent[] slots;
+
+    // 每个槽位最后发布的序号：等于当前序号说明已经发布
+    private final AtomicLongArray published;
+
+    // 下一个要分配的序号
+    private final AtomicLong claimed = new AtomicLong();
+
+    // 消费者下一个要读的序号：它之前的槽位都可以复用
+    private final AtomicLong consumed = new AtomicLong();
+
+    // handler处理完的序号：它之前的订单都已经交给handler处理过了
+    private final AtomicLong handled = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread consumerThread;
+
+    // 指标
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final AtomicLong maxOccupancy = new AtomicLong();
+
+    public OrderRingBuffer(SeckillProperties seckillProperties) {
+        SeckillProperties.RingBuffer properties = seckillProperties.getRingBuffer();
+        // 容量取2的幂，序号 & mask 就是下标
+        this.capacity = Integer.highestOneBit(Math.max(2, properties.getCapacity() - 1) << 1);
+        this.mask = capacity - 1;
+        this.batchSize = properties.getBatchSize();
+        this.slots = new OrderEvent[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new OrderEvent();
+            published.set(i, -1L);
+        }
+    }
+
+    /**
+     * 启动消费者线程
+     * @param handler 处理一批订单，抛异常时由handler自己决定怎么重试，这里只记日志
+     */
+    public synchronized void start(Consumer<List<VoucherOrder>> handler) {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumerThread = new Thread(() -> consume(handler), "order-ring-buffer-consumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        if (consumerThread != null) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    /**
+     * 占一个槽位
+     * @return 序号，满了返回-1。返回序号后必须调用publish或者publishEmpty
+     */
+    public long tryClaim() {
+        while (true) {
+            long seq = claimed.get();
+            long occupancy = seq - consumed.get();
+            if (occupancy >= capacity) {
+                rejected.increment();
+                return -1L;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) {
+                if (occupancy + 1 > maxOccupancy.get()) {
+                    maxOccupancy.accumulateAndGet(occupancy + 1, Math::max);
+                }
+                return seq;
+            }
+        }
+    }
+
+    public void publish(long seq, long orderId, long userId, long voucherId) {
+        OrderEvent event = slots[(int) (seq & mask)];
+        event.valid = true;
+        event.orderId = orderId;
+        event.userId = userId;
+        event.voucherId = voucherId;
+        // volatile写：消费者读到序号时一定能看到上面写的字段
+        published.set((int) (seq & mask), seq);
+    }
+
+    // 占了槽位但是没有下单成功（库存不足、重复下单、异常）
+    public void publishEmpty(long seq) {
+        slots[(int) (seq & mask)].valid = false;
+        published.set((int) (seq & mask), seq);
+    }
+
+    private void consume(Consumer<List<VoucherOrder>> handler) {
+        long next = consumed.get();
+        int idle = 0;
+        while (running) {
+            List<VoucherOrder> batch = new ArrayList<>();
+            long seq = next;
+            // 只读连续已经发布的槽位：前面的槽位还在执行lua脚本时等它
+            while (seq - next < batchSize && published.get((int) (seq & mask)) == seq) {
+                OrderEvent event = slots[(int) (seq & mask)];
+                if (event.valid) {
+                    VoucherOrder order = new VoucherOrder();
+                    order.setId(event.orderId);
+                    order.setUserId(event.userId);
+                    order.setVoucherId(event.voucherId);
+                    batch.add(order);
+                } else {
+                    skipped.increment();
+                }
+                seq++;
+            }
+            if (seq == next) {
+                // 没有数据：先自旋，再逐渐延长park的时间，最多1ms
+                idle++;
+                if (idle > 100) {
+                    LockSupport.parkNanos(Math.min(1_000_000L, 1_000L * (idle - 100)));
+                } else {
+                    Thread.yield();
+                }
+                continue;
+            }
+            idle = 0;
+            // 已经复制出来了：先释放槽位再处理，处理数据库的时候生产者可以继续写
+            next = seq;
+            consumed.set(next);
+            if (batch.isEmpty()) {
+                handled.set(next);
+                continue;
+            }
+            batches.increment();
+            orders.add(batch.size());
+            try {
+                handler.accept(batch);
+            } catch (Exception e) {
+                log.error("处理订单异常，订单个数 = {}，{}", batch.size(), e.getMessage());
+            } finally {
+                handled.set(next);
+            }
+        }
+    }
+
+    /**
+     * 在途的订单：占了槽位还没发布的、已经发布还没读的、读出来了handler还没处理完的
+     */
+    public long inFlight() {
+        return claimed.get() - handled.get();
+    }
+
+    public Map<String, Object> stats() {
+        long occupancy = claimed.get() - consumed.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("capacity", capacity);
+        map.put("occupancy", occupancy);
+        map.put("occupancyRatio", (double) occupancy / capacity);
+        map.put("maxOccupancy", maxOccupancy.get());
+        map.put("inFlight", inFlight());
+        map.put("rejected", rejected.sum());
+        map.put("orders", orders.sum());
+        map.put("skipped", skipped.sum());
+        map.put("batches", batches.sum());
+        return map;
+    }
+
+    /**
+     * 槽位：预分配，反复使用
+     */
+    private static class OrderEvent {
+
+        private boolean valid;
+
+        private long orderId;
+
+        private long userId;
+
+        private long voucherId;
+    }
+}
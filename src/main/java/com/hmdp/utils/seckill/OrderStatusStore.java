@@ -0,0 +1,233 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.RedisIdWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 描述：秒杀订单的状态，客户端轮询用，不查数据库
+ *
+ *  seckillVoucher4返回订单id后，客户端不知道异步消费者有没有真正写入数据库。
+ *  1.状态存在redis的hash中：订单id按hashMaxZiplistEntries（默认128）个一段，key是 订单id >>> 7，field是 订单id & 127，value是1或2。
+ *    每个hash最多128个元素，不会因为大促时订单太多超过hash-max-ziplist-entries转成hashtable编码；
+ *    field和value都是小整数，ziplist按整数存，比一个订单一个key省很多内存。每个key写入时设置过期时间。
+ *  2.只记录终态：CREATED、FAILED由消费者按批写入，一批一次pipeline。
+ *    没有记录的订单，如果订单id中的时间还在有效期内就是PENDING，否则是UNKNOWN，下单时不用多写一次redis。
+ *  3.长轮询：等待中的请求不占用tomcat线程，定时用一次pipeline查所有等待中的订单；本节点写入状态时立即检查一次。
+ *
+ * @author txl
+ * @date 2026-10-19 18:00
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+
+    public enum Status {
+        PENDING, CREATED, FAILED, UNKNOWN
+    }
+
+    private static final String CREATED = "1";
+    private static final String FAILED = "2";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties.OrderStatus properties;
+
+    // 每段的订单id个数是 1 << shift，field是订单id & mask
+    private final int shift;
+
+    private final long mask;
+
+    // 等待中的长轮询请求
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean checking = new AtomicBoolean();
+
+    private final ScheduledExecutorService pollScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "order-status-poll");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public OrderStatusStore(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getOrderStatus();
+        this.shift = 31 - Integer.numberOfLeadingZeros(Math.max(1, properties.getHashMaxZiplistEntries()));
+        this.mask = (1L << shift) - 1;
+    }
+
+    @PostConstruct
+    private void init() {
+        long interval = properties.getPollIntervalMillis();
+        pollScheduler.scheduleWithFixedDelay(this::checkWaiters, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        pollScheduler.shutdownNow();
+    }
+
+    /**
+     * 批量写入终态：一次pipeline，每个分片key设置一次过期时间
+     */
+    public void mark(Collection<Long> created, Collection<Long> failed) {
+        if (created.isEmpty() && failed.isEmpty()) {
+            return;
+        }
+        Set<String> keys = new HashSet<>();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long orderId : created) {
+                String key = key(orderId);
+                keys.add(key);
+                connection.hSet(bytes(key), field(orderId), bytes(CREATED));
+            }
+            for (Long orderId : failed) {
+                String key = key(orderId);
+                keys.add(key);
+                connection.hSet(bytes(key), field(orderId), bytes(FAILED));
+            }
+            for (String key : keys) {
+                connection.expire(bytes(key), properties.getTtlSeconds());
+            }
+            return null;
+        });
+        if (!waiters.isEmpty()) {
+            pollScheduler.execute(this::checkWaiters);
+        }
+    }
+
+    /**
+     * 批量查询：一次pipeline
+     * @return 订单id -> 状态，按ids的顺序
+     */
+    public Map<Long, Status> query(List<Long> ids) {
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long orderId : ids) {
+                connection.hGet(bytes(key(orderId)), field(orderId));
+            }
+            return null;
+        });
+        Map<Long, Status> statuses = new LinkedHashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            statuses.put(ids.get(i), toStatus(ids.get(i), (String) values.get(i)));
+        }
+        return statuses;
+    }
+
+    /**
+     * 长轮询：所有订单都有终态或者超时才返回，超时返回当前的状态
+     */
+    public DeferredResult<Result> poll(List<Long> ids, long timeoutMillis) {
+        long timeout = Math.min(Math.max(timeoutMillis, 0L), properties.getMaxPollMillis());
+        Map<Long, Status> current = query(ids);
+        DeferredResult<Result> result = new DeferredResult<>(timeout);
+        if (timeout == 0 || isDone(current)) {
+            result.setResult(Result.ok(current));
+            return result;
+        }
+        Waiter waiter = new Waiter(ids, current, result);
+        result.onTimeout(() -> result.setResult(Result.ok(waiter.statuses)));
+        result.onCompletion(() -> waiters.remove(waiter));
+        waiters.add(waiter);
+        return result;
+    }
+
+    public int waiting() {
+        return waiters.size();
+    }
+
+    // 一次pipeline查所有等待中的订单，全部有终态的请求返回
+    private void checkWaiters() {
+        if (waiters.isEmpty() || !checking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Waiter> snapshot = new ArrayList<>(waiters);
+            Set<Long> ids = new HashSet<>();
+            for (Waiter waiter : snapshot) {
+                ids.addAll(waiter.ids);
+            }
+            Map<Long, Status> statuses = query(new ArrayList<>(ids));
+            for (Waiter waiter : snapshot) {
+                Map<Long, Status> own = new LinkedHashMap<>();
+                for (Long id : waiter.ids) {
+                    own.put(id, statuses.get(id));
+                }
+                waiter.statuses = own;
+                if (isDone(own)) {
+                    waiter.result.setResult(Result.ok(own));
+                }
+            }
+        } catch (Exception e) {
+            log.error("查询订单状态失败：{}", e.getMessage());
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private static boolean isDone(Map<Long, Status> statuses) {
+        return !statuses.containsValue(Status.PENDING);
+    }
+
+    private Status toStatus(Long orderId, String value) {
+        if (CREATED.equals(value)) {
+            return Status.CREATED;
+        }
+        if (FAILED.equals(value)) {
+            return Status.FAILED;
+        }
+        // 没有记录：订单id中的时间还在有效期内就是处理中
+        return RedisIdWorker.ageSeconds(orderId) < properties.getTtlSeconds() ? Status.PENDING : Status.UNKNOWN;
+    }
+
+    // seckill:order:status:{订单id >>> 7}
+    private String key(Long orderId) {
+        return RedisConstants.SECKILL_ORDER_STATUS_KEY + (orderId >>> shift);
+    }
+
+    // 订单id & 127：段内的下标
+    private byte[] field(Long orderId) {
+        return bytes(String.valueOf(orderId & mask));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class Waiter {
+
+        private final List<Long> ids;
+
+        private final DeferredResult<Result> result;
+
+        private volatile Map<Long, Status> statuses;
+
+        private Waiter(List<Long> ids, Map<Long, Status> statuses, DeferredResult<Result> result) {
+            this.ids = ids;
+            this.statuses = statuses;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 描述：秒杀活动的预热和归档
+ *
+ *  原来新建秒杀券时立即把库存写到redis，不会过期，也没有活动时间，seckill.lua不查数据库就拒绝不了活动时间外的请求。
+ *  1.预热：开始前preloadLeadMinutes分钟内、还没结束、redis中还没有的秒杀券，把数据库的库存和时间窗口写到redis，
+ *    seckill.lua用redis的时间判断是否在窗口内。这些key设置兜底的过期时间：结束后archiveDelayMinutes + archiveLookbackDays。
+ *  2.归档：结束超过archiveDelayMinutes（等消费者处理完、对账做完）的秒杀券，剩余库存和下单用户数写到seckill:archive:{voucherId}，
+ *    再UNLINK库存、订单、时间窗口这些key，redis的内存不会随着活动越来越多。
+ *  3.都按voucher_id游标分批读，多个节点只有拿到锁的一个执行。
+ *
+ * @author txl
+ * @date 2026-10-21 20:00
+ */
+@Slf4j
+@Component
+public class SeckillCampaignScheduler {
+
+    private static final String LOCK_KEY = "lock:seckill:campaign";
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final SeckillStockManager seckillStockManager;
+
+    private final RedissonClient redissonClient;
+
+    private final SeckillProperties.Campaign properties;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-campaign");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder preloaded = new LongAdder();
+
+    private final LongAdder archived = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private volatile String lastRunTime;
+
+    public SeckillCampaignScheduler(ISeckillVoucherService seckillVoucherService, SeckillStockManager seckillStockManager,
+                                    RedissonClient redissonClient, SeckillProperties seckillProperties) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.seckillStockManager = seckillStockManager;
+        this.redissonClient = redissonClient;
+        this.properties = seckillProperties.getCampaign();
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (Exception e) {
+                log.error("秒杀活动预热和归档失败", e);
+            }
+        }, 0, properties.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 新建秒杀券时调用：马上就要开始的立即预热，其余的等定时任务
+     */
+    public void onCreated(SeckillVoucher voucher) {
+        if (!properties.isEnabled() || shouldPreload(voucher, LocalDateTime.now())) {
+            preload(voucher);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        // 不指定租期：预热和归档的秒杀券多时可能比intervalMillis长，由看门狗续期
+        if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+
+            // 1.预热：马上开始或者进行中的，redis中还没有的
+            scan(now.plusMinutes(properties.getPreloadLeadMinutes()), now, null, voucher -> {
+                if (!seckillStockManager.isLoaded(voucher.getVoucherId())) {
+                    preload(voucher);
+                }
+            });
+
+            // 2.归档：结束了一段时间的，redis中还有的
+            LocalDateTime archiveBefore = now.minusMinutes(properties.getArchiveDelayMinutes());
+            scan(null, archiveBefore.minusDays(properties.getArchiveLookbackDays()), archiveBefore, voucher -> {
+                if (seckillStockManager.isLoaded(voucher.getVoucherId())) {
+                    archive(voucher);
+                }
+            });
+            lastRunTime = now.toString();
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 按voucher_id游标分批读秒杀券：begin_time <= beginBefore，endAfter < end_time <= endBefore，null表示不限制
+     */
+    private void scan(LocalDateTime beginBefore, LocalDateTime endAfter, LocalDateTime endBefore,
+                      Consumer<SeckillVoucher> action) {
+        long lastId = 0L;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("voucher_id", lastId)
+                    .le(beginBefore != null, "begin_time", beginBefore)
+                    .gt(endAfter != null, "end_time", endAfter)
+                    .le(endBefore != null, "end_time", endBefore)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + properties.getBatchSize())
+                    .list();
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            for (SeckillVoucher voucher : vouchers) {
+                try {
+                    action.accept(voucher);
+                } catch (Exception e) {
+                    failures.increment();
+                    log.error("处理秒杀活动失败，voucherId = {}，{}", voucher.getVoucherId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean shouldPreload(SeckillVoucher voucher, LocalDateTime now) {
+        return !voucher.getBeginTime().isAfter(now.plusMinutes(properties.getPreloadLeadMinutes()))
+                && voucher.getEndTime().isAfter(now);
+    }
+
+    // 库存用数据库的：开始之前数据库的库存就是初始库存。进行中的秒杀券（比如redis数据丢了）按数据库的剩余库存恢复
+    private void preload(SeckillVoucher voucher) {
+        LocalDateTime expireAt = voucher.getEndTime()
+                .plusMinutes(properties.getArchiveDelayMinutes())
+                .plusDays(properties.getArchiveLookbackDays());
+        seckillStockManager.init(voucher.getVoucherId(), voucher.getStock(),
+                voucher.getBeginTime(), voucher.getEndTime(), expireAt);
+        preloaded.increment();
+        log.info("预热秒杀活动，voucherId = {}，库存 = {}，{} ~ {}", voucher.getVoucherId(), voucher.getStock(),
+                voucher.getBeginTime(), voucher.getEndTime());
+    }
+
+    private void archive(SeckillVoucher voucher) {
+        Map<String, String> summary = seckillStockManager.archive(voucher.getVoucherId(),
+                TimeUnit.DAYS.toSeconds(properties.getArchiveTtlDays()));
+        archived.increment();
+        log.info("归档秒杀活动，voucherId = {}，{}", voucher.getVoucherId(), summary);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("preloaded", preloaded.sum());
+        stats.put("archived", archived.sum());
+        stats.put("failures", failures.sum());
+        stats.put("lastRunTime", lastRunTime);
+        return stats;
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.utils.seckill;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述：秒杀接口的分层限流
+ *
+ *  机器人每秒几千个请求打到 /voucher-order/seckill/{id}，每个请求都要生成一次id、执行一次lua脚本。
+ *  1.本节点每个优惠券一个令牌桶：保护本节点，超出的请求不访问redis直接拒绝。令牌桶用GCRA实现，一个AtomicLong，CAS更新不加锁。
+ *  2.每个用户一个滑动窗口：所有节点共享，一次lua脚本完成清理、计数和记录。
+ *  3.redis不可用时用户限流放行，由后面的秒杀脚本报错。
+ *
+ * @author txl
+ * @date 2026-10-19 16:00
+ */
+@Slf4j
+@Component
+public class SeckillRateLimiter {
+
+    public static final int ADMITTED = 0;
+    public static final int VOUCHER_LIMITED = 1;
+    public static final int USER_LIMITED = 2;
+
+    private static final DefaultRedisScript<Long> USER_LIMIT_SCRIPT;
+
+    static {
+        USER_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        USER_LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_user_limit.lua"));
+        USER_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties.RateLimit properties;
+
+    // 优惠券id -> 本节点的令牌桶：一段时间没有请求的移除
+    private final Cache<Long, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    // 指标
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder voucherLimited = new LongAdder();
+    private final LongAdder userLimited = new LongAdder();
+    private final LongAdder userLimitErrors = new LongAdder();
+
+    public SeckillRateLimiter(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getRateLimit();
+    }
+
+    /**
+     * @return ADMITTED放行，VOUCHER_LIMITED本节点优惠券限流，USER_LIMITED用户限流
+     */
+    public int tryAcquire(Long voucherId, Long userId) {
+        if (!properties.isEnabled()) {
+            return ADMITTED;
+        }
+
+        // 1.本节点的优惠券令牌桶
+        if (voucherId != null) {
+            TokenBucket bucket = buckets.get(voucherId, id -> new TokenBucket(properties.permitsOf(id)));
+            if (!bucket.tryAcquire()) {
+                voucherLimited.increment();
+                return VOUCHER_LIMITED;
+            }
+        }
+
+        // 2.用户的滑动窗口
+        if (userId != null && !tryAcquireUser(userId)) {
+            userLimited.increment();
+            return USER_LIMITED;
+        }
+
+        admitted.increment();
+        return ADMITTED;
+    }
+
+    private boolean tryAcquireUser(Long userId) {
+        long now = System.currentTimeMillis();
+        String member = now + ":" + ThreadLocalRandom.current().nextLong();
+        try {
+            Long result = stringRedisTemplate.execute(USER_LIMIT_SCRIPT,
+                    Collections.singletonList(RedisConstants.SECKILL_USER_LIMIT_KEY + userId),
+                    String.valueOf(now), String.valueOf(properties.getUserWindowMillis()),
+                    String.valueOf(properties.getUserLimit()), member);
+            return result == null || result == 1L;
+        } catch (Exception e) {
+            userLimitErrors.increment();
+            log.warn("用户限流脚本执行失败，放行，userId = {}，{}", userId, e.getMessage());
+            return true;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("enabled", properties.isEnabled());
+        map.put("admitted", admitted.sum());
+        map.put("voucherLimited", voucherLimited.sum());
+        map.put("userLimited", userLimited.sum());
+        map.put("userLimitErrors", userLimitErrors.sum());
+        Map<Long, Object> vouchers = new LinkedHashMap<>();
+        buckets.asMap().forEach((voucherId, bucket) -> vouchers.put(voucherId, bucket.stats()));
+        map.put("vouchers", vouchers);
+        return map;
+    }
+
+    /**
+     * 令牌桶（GCRA）：tat是下一个请求理论上的到达时间，每放行一个请求加一个间隔，
+     *  tat超出当前时间一秒以上说明桶里没有令牌了。
+     */
+    private static class TokenBucket {
+
+        private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final long intervalNanos;
+
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        private final LongAdder admitted = new LongAdder();
+
+        private final LongAdder shed = new LongAdder();
+
+        private TokenBucket(long permitsPerSecond) {
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1L, permitsPerSecond);
+        }
+
+        private boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + intervalNanos;
+                if (next - now > BURST_NANOS) {
+                    shed.increment();
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    admitted.increment();
+                    return true;
+                }
+            }
+        }
+
+        private Map<String, Object> stats() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("permitsPerSecond", TimeUnit.SECONDS.toNanos(1) / intervalNanos);
+            map.put("admitted", admitted.sum());
+            map.put("shed", shed.sum());
+            return map;
+        }
+    }
+}
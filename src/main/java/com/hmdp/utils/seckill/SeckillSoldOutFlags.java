@@ -0,0 +1,163 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * 描述：本节点的售罄标记
+ *
+ *  优惠券卖完之后，每次秒杀请求还是会执行一次lua脚本，然后返回库存不足，活动结束后redis还要一直承受全部的流量。
+ *  1.脚本第一次返回库存不足时在本节点标记售罄，并通过发布订阅通知其他节点也标记。
+ *  2.标记存在时直接在进程内返回库存不足，不访问redis。
+ *  3.补充库存时清除标记并通知其他节点清除。
+ *  4.标记有有效期：过期后CAS把过期时间延长一个有效期，只有CAS成功的一个请求去执行脚本，其他请求继续拒绝，
+ *    不会在过期的那一刻所有请求一起打到redis。还是没库存就重新标记；下单成功说明有库存了，清除本节点的标记。
+ *    漏收了清除消息，最多也只会多拒绝一个有效期。
+ *  5.同一个频道顺便通知秒杀券的key变了：预热（清除标记）和归档时，各个节点回调onReload的监听器，
+ *    SeckillStockManager在这里丢掉本地缓存的分桶方式。
+ *
+ * @author txl
+ * @date 2026-10-18 20:30
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutFlags implements MessageListener {
+
+    // 消息格式：1:voucherId 标记售罄，0:voucherId 清除标记，2:voucherId 秒杀券归档了
+    private static final String SET = "1";
+    private static final String CLEAR = "0";
+    private static final String RELOAD = "2";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final SeckillProperties properties;
+
+    // 优惠券id -> 标记的过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    // 收到清除标记或者归档的消息时回调：优惠券id
+    private final List<Consumer<Long>> reloadListeners = new CopyOnWriteArrayList<>();
+
+    public SeckillSoldOutFlags(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                               SeckillProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否售罄：标记过期时只有一个调用方返回false去redis确认，其他的还是返回true
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (soldOut.isEmpty()) {
+            return false;
+        }
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (expireAt > now) {
+            return true;
+        }
+        // 过期了：CAS延长成功的去redis确认，失败的说明别人已经去了（或者标记刚被清除、刷新）
+        return !soldOut.replace(voucherId, expireAt, now + properties.getSoldOutTtlMillis());
+    }
+
+    /**
+     * 下单成功：说明又有库存了，清除本节点的标记（比如漏收了补充库存的清除消息）。没有标记时不做任何事
+     */
+    public void markAvailable(Long voucherId) {
+        if (!soldOut.isEmpty()) {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    /**
+     * 标记售罄：本节点第一次标记时通知其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        markSoldOut(voucherId, Runnable::run);
+    }
+
+    /**
+     * 标记售罄：本节点的标记立即生效，通知其他节点的PUBLISH交给publisher执行（比如不能阻塞的lettuce IO线程上）
+     */
+    public void markSoldOut(Long voucherId, Executor publisher) {
+        boolean marked = isSoldOut(voucherId);
+        soldOut.put(voucherId, System.currentTimeMillis() + properties.getSoldOutTtlMillis());
+        if (!marked) {
+            publisher.execute(() -> publish(SET, voucherId));
+        }
+    }
+
+    /**
+     * 补充库存后清除标记
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(CLEAR, voucherId);
+    }
+
+    /**
+     * 秒杀券归档了：通知各个节点，不改售罄标记
+     */
+    public void reload(Long voucherId) {
+        publish(RELOAD, voucherId);
+    }
+
+    /**
+     * 注册监听器：任意节点预热（清除标记）或者归档了这个优惠券时回调，包括本节点自己发的消息
+     */
+    public void onReload(Consumer<Long> listener) {
+        reloadListeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+        Long voucherId = Long.valueOf(parts[1]);
+        if (SET.equals(parts[0])) {
+            soldOut.put(voucherId, System.currentTimeMillis() + properties.getSoldOutTtlMillis());
+            return;
+        }
+        if (CLEAR.equals(parts[0])) {
+            soldOut.remove(voucherId);
+        }
+        for (Consumer<Long> listener : reloadListeners) {
+            listener.accept(voucherId);
+        }
+    }
+
+    private void publish(String type, Long voucherId) {
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, type + ":" + voucherId);
+        } catch (Exception e) {
+            // 其他节点等自己执行脚本发现售罄，或者等标记过期
+            log.error("发送售罄消息失败，voucherId = {}，{}", voucherId, e.getMessage());
+        }
+    }
+}
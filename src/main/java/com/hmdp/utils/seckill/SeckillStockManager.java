@@ -0,0 +1,691 @@
+package com.hmdp.utils.seckill;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述：秒杀库存分桶
+ *
+ *  原来一个优惠券只有一个库存key和一个订单set，大促时这个优惠券的所有请求都落在同一个slot上，只能用到一个redis核。
+ *  1.新建秒杀券时库存平均分到N个桶：seckill:stock:{voucherId:i}、seckill:order:{voucherId:i}，
+ *    hash tag让同一个桶的库存和订单在同一个slot，不同的桶可以分散到不同的slot上。
+ *  2.用户按userId的哈希固定路由到一个桶，一人一单只需要查这个桶的订单set。
+ *  3.本桶库存不足时，seckill.lua先在本桶占住下单资格，再从随机的起点依次去其他桶借库存（每次只操作一个桶的key），
+ *    所有桶都借不到时再把占位删掉。
+ *  4.没有seckill:buckets:{voucherId}的老数据还是用原来的seckill:stock:{voucherId}、seckill:order:{voucherId}。
+ *  5.一人一单默认用位图记录（seckill:buckets:{voucherId}的值是 桶数:bitmap）：百万用户的set要几十MB，位图只要userId最大值/8个字节。
+ *    位图模式下用户按 userId % 桶数 路由，在桶内的偏移量是 userId / 桶数，所有桶的位图加起来还是userId最大值/8个字节。
+ *    偏移量超过bitmapMaxOffset的稀疏id写到同一个桶的set里（混合模式），避免一个大id把位图撑到几百MB。
+ *
+ *  6.tryAcquireAsync通过lettuce的异步连接执行脚本，不阻塞调用线程。回调在lettuce的IO线程上执行，
+ *    里面只能再发异步命令，同步的redis调用（比如发布售罄消息）要换到别的线程，否则会卡住IO线程。
+ *    售罄消息用自己的一个线程发，不用ForkJoinPool.commonPool()：公共池只有核数-1个线程，售罄时大量的PUBLISH会把它堵住。
+ *
+ *  7.组合券一次脚本调用：每个优惠券传本桶的订单key和所有桶的库存key（本桶在前），脚本先全部检查再一起扣，
+ *    一条消息带上所有订单行。组合券的key跨多个优惠券、多个桶，只能部署在单个redis节点上：
+ *    连的是redis集群时脚本一定会报CROSSSLOT，tryAcquireBundle直接抛异常，接口返回不支持，不去执行脚本。
+ *
+ *  8.预热时每个桶写一份活动时间窗口seckill:window:{voucherId:i}，seckill.lua用redis的时间判断，窗口外返回未开始/已结束，
+ *    不用查数据库。没有窗口key的老数据不检查。活动结束后由SeckillCampaignScheduler归档并删除这些key。
+ *
+ *  8.分桶的秒杀券每个桶一个消息队列stream.orders:{voucherId:i}，和本桶的库存在同一个slot，脚本里XADD不会跨slot；
+ *    借库存时消息发到被借的桶的stream。初始化时把这些stream登记到stream.orders:index，VoucherOrderConsumer读所有登记的stream。
+ *    没分桶的老数据和组合券本来就跨slot，还是发到stream.orders。
+ *
+ * @author txl
+ * @date 2026-10-18 19:10
+ */
+@Component
+public class SeckillStockManager {
+
+    // 下单成功
+    public static final int OK = 0;
+    // 库存不足
+    public static final int NO_STOCK = 1;
+    // 重复下单
+    public static final int DUPLICATE = 2;
+    // 本桶库存不足，已经占住下单资格，需要去其他桶借库存
+    private static final int NEED_STEAL = 3;
+    // 秒杀尚未开始
+    public static final int NOT_STARTED = 4;
+    // 秒杀已经结束
+    public static final int ENDED = 5;
+
+    // seckill:buckets:{voucherId}的值的后缀：一人一单用位图记录
+    private static final String BITMAP_SUFFIX = ":bitmap";
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    private static final DefaultRedisScript<Long> STEAL_SCRIPT;
+
+    private static final DefaultRedisScript<Long> CORRECT_SCRIPT;
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> BUNDLE_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        STEAL_SCRIPT = new DefaultRedisScript<>();
+        STEAL_SCRIPT.setLocation(new ClassPathResource("seckill_steal.lua"));
+        STEAL_SCRIPT.setResultType(Long.class);
+        CORRECT_SCRIPT = new DefaultRedisScript<>();
+        CORRECT_SCRIPT.setLocation(new ClassPathResource("seckill_stock_correct.lua"));
+        CORRECT_SCRIPT.setResultType(Long.class);
+        BUNDLE_SCRIPT = new DefaultRedisScript<>();
+        BUNDLE_SCRIPT.setLocation(new ClassPathResource("seckill_bundle.lua"));
+        BUNDLE_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    private final SeckillProperties properties;
+
+    // 本节点的售罄标记
+    private final SeckillSoldOutFlags soldOutFlags;
+
+    // 是否连的redis集群：组合券的脚本跨slot，集群上不能执行
+    private final boolean cluster;
+
+    // 优惠券id -> 分桶方式。创建后不变，缓存一会儿，不用每次请求都查。
+    // 只缓存redis中有的（分桶的或者没分桶的老数据）；预热、归档时各个节点通过售罄频道的消息丢掉缓存
+    // 异步秒杀发布售罄消息的线程：每个优惠券只有第一次标记时才发，队列满了丢弃，其他节点等自己执行脚本发现售罄
+    private final ExecutorService soldOutPublisher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000), r -> {
+                Thread thread = new Thread(r, "seckill-sold-out");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private final Cache<Long, Layout> layouts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .build();
+
+    public SeckillStockManager(StringRedisTemplate stringRedisTemplate, ReactiveStringRedisTemplate reactiveStringRedisTemplate,
+                               SeckillProperties properties, SeckillSoldOutFlags soldOutFlags) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveStringRedisTemplate = reactiveStringRedisTemplate;
+        this.properties = properties;
+        this.soldOutFlags = soldOutFlags;
+        this.cluster = isCluster(stringRedisTemplate.getConnectionFactory());
+        soldOutFlags.onReload(layouts::invalidate);
+    }
+
+    private static boolean isCluster(RedisConnectionFactory connectionFactory) {
+        return connectionFactory instanceof LettuceConnectionFactory
+                && ((LettuceConnectionFactory) connectionFactory).getClusterConfiguration() != null;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        soldOutPublisher.shutdown();
+    }
+
+    /**
+     * 初始化库存：平均分到各个桶，余数分给前几个桶
+     */
+    public void init(Long voucherId, int stock) {
+        init(voucherId, stock, null, null, null);
+    }
+
+    /**
+     * 预热秒杀活动：库存分桶，每个桶写一份时间窗口，seckill.lua在窗口外直接拒绝
+     * @param expireAt 库存、窗口、桶数这些key的过期时间：活动的key没有被归档时兜底清理，null表示不过期
+     */
+    public void init(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime, LocalDateTime expireAt) {
+        int buckets = Math.max(1, Math.min(properties.getStockBuckets(), stock));
+        Map<String, String> values = new HashMap<>(buckets * 4);
+        for (int i = 0; i < buckets; i++) {
+            int bucketStock = stock / buckets + (i < stock % buckets ? 1 : 0);
+            values.put(stockKey(voucherId, i), String.valueOf(bucketStock));
+        }
+        boolean bitmap = properties.getPurchaseDedup() == SeckillProperties.PurchaseDedup.BITMAP;
+        if (beginTime != null && endTime != null) {
+            String window = epochMillis(beginTime) + ":" + epochMillis(endTime);
+            for (int i = 0; i < buckets; i++) {
+                values.put(windowKey(voucherId, i), window);
+            }
+        }
+        String bucketsKey = RedisConstants.SECKILL_BUCKETS_KEY + voucherId;
+        values.put(bucketsKey, buckets + (bitmap ? BITMAP_SUFFIX : ""));
+        stringRedisTemplate.opsForValue().multiSet(values);
+        // 每个桶的消息队列登记给消费者：stream里可能还有没消费的消息，不设置过期时间，由消费者在归档后清理
+        Map<String, String> streams = new HashMap<>(buckets * 2);
+        for (int i = 0; i < buckets; i++) {
+            streams.put(streamKey(voucherId, i), voucherId.toString());
+        }
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_ORDER_STREAM_INDEX_KEY, streams);
+        if (expireAt != null) {
+            long deadline = epochMillis(expireAt);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : values.keySet()) {
+                    connection.pExpireAt(bytes(key), deadline);
+                }
+                return null;
+            });
+        }
+        layouts.put(voucherId, new Layout(buckets, bitmap));
+        // 补充了库存：清除各个节点的售罄标记
+        soldOutFlags.clear(voucherId);
+    }
+
+    /**
+     * 扣库存、一人一单校验、发消息：返回库存不足时标记售罄
+     * @param publish 是否发消息到扣了库存的桶的消息队列
+     * @return OK、NO_STOCK、DUPLICATE、NOT_STARTED、ENDED
+     */
+    public int tryAcquire(Long voucherId, Long userId, long orderId, boolean publish) {
+        int result = doAcquire(voucherId, userId, orderId, publish);
+        if (result == NO_STOCK) {
+            soldOutFlags.markSoldOut(voucherId);
+        } else if (result == OK) {
+            soldOutFlags.markAvailable(voucherId);
+        }
+        return result;
+    }
+
+    /**
+     * tryAcquire的异步版本：脚本通过lettuce的异步连接执行，等待redis返回时不占用调用线程
+     * @return OK、NO_STOCK、DUPLICATE、NOT_STARTED、ENDED，在lettuce的IO线程上完成
+     */
+    public CompletableFuture<Integer> tryAcquireAsync(Long voucherId, Long userId, long orderId, boolean publish) {
+        return doAcquireAsync(voucherId, userId, orderId, publish).thenApply(result -> {
+            if (result == NO_STOCK) {
+                // 本节点的标记在IO线程上直接写，发布售罄消息是同步的redis调用：交给自己的线程
+                soldOutFlags.markSoldOut(voucherId, soldOutPublisher);
+            } else if (result == OK) {
+                soldOutFlags.markAvailable(voucherId);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 组合券：一次脚本调用检查并扣减所有优惠券的库存，要么全部成功要么都不扣，成功时发一条带所有订单行的消息
+     * @param orderIds 和voucherIds一一对应
+     * @return 结果和不满足的优惠券的下标，某个优惠券库存不足时标记它售罄
+     * @throws UnsupportedOperationException 连的是redis集群，见{@link #supportsBundle()}
+     */
+    public BundleResult tryAcquireBundle(List<Long> voucherIds, Long userId, List<Long> orderIds, String streamKey) {
+        if (cluster) {
+            throw new UnsupportedOperationException("组合券秒杀的key跨多个slot，不能在redis集群上执行");
+        }
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        args.add(userId.toString());
+        args.add(String.valueOf(voucherIds.size()));
+        for (int i = 0; i < voucherIds.size(); i++) {
+            Long voucherId = voucherIds.get(i);
+            Layout layout = layout(voucherId);
+            long offset = -1L;
+            List<String> stockKeys = new ArrayList<>();
+            if (layout.buckets == 0) {
+                // 老数据：没分桶
+                keys.add(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+                keys.add(RedisConstants.SECKILL_WINDOW_KEY + voucherId);
+                stockKeys.add(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+            } else {
+                // 本桶在前，其他桶从随机的起点依次排，避免所有人都去借同一个桶
+                int home = layout.bucketOf(userId);
+                offset = layout.offsetOf(userId, properties.getBitmapMaxOffset());
+                keys.add(offset >= 0 ? bitmapKey(voucherId, home) : orderKey(voucherId, home));
+                keys.add(windowKey(voucherId, home));
+                stockKeys.add(stockKey(voucherId, home));
+                int start = ThreadLocalRandom.current().nextInt(layout.buckets);
+                for (int j = 0; j < layout.buckets; j++) {
+                    int bucket = (start + j) % layout.buckets;
+                    if (bucket != home) {
+                        stockKeys.add(stockKey(voucherId, bucket));
+                    }
+                }
+            }
+            keys.addAll(stockKeys);
+            args.add(voucherId.toString());
+            args.add(orderIds.get(i).toString());
+            args.add(String.valueOf(stockKeys.size()));
+            args.add(String.valueOf(offset));
+        }
+        keys.add(streamKey);
+
+        List<?> result = stringRedisTemplate.execute(BUNDLE_SCRIPT, keys, args.toArray());
+        if (result == null || result.size() < 2) {
+            return new BundleResult(NO_STOCK, -1);
+        }
+        int code = ((Number) result.get(0)).intValue();
+        int index = ((Number) result.get(1)).intValue() - 1;
+        if (code == NO_STOCK && index >= 0) {
+            soldOutFlags.markSoldOut(voucherIds.get(index));
+        }
+        return new BundleResult(code, index);
+    }
+
+    /**
+     * 是否能执行组合券秒杀：连的是redis集群时不能
+     */
+    public boolean supportsBundle() {
+        return !cluster;
+    }
+
+    /**
+     * 本节点是否已经知道这个优惠券卖完了：不访问redis
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutFlags.isSoldOut(voucherId);
+    }
+
+    private int doAcquire(Long voucherId, Long userId, long orderId, boolean publish) {
+        String[] args = {voucherId.toString(), userId.toString(), String.valueOf(orderId)};
+        Layout layout = layout(voucherId);
+        int buckets = layout.buckets;
+        if (buckets == 0) {
+            // 老数据：没分桶
+            return execute(SECKILL_SCRIPT, keys(publish ? RedisConstants.SECKILL_ORDER_STREAM_KEY : null,
+                    RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                    RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_WINDOW_KEY + voucherId),
+                    args[0], args[1], args[2], "0");
+        }
+
+        // 1.本桶：位图模式传偏移量，set模式传-1
+        int home = layout.bucketOf(userId);
+        long offset = layout.offsetOf(userId, properties.getBitmapMaxOffset());
+        String orderKey = offset >= 0 ? bitmapKey(voucherId, home) : orderKey(voucherId, home);
+        int result = execute(SECKILL_SCRIPT, keys(publish ? streamKey(voucherId, home) : null,
+                stockKey(voucherId, home), orderKey, windowKey(voucherId, home)),
+                args[0], args[1], args[2], buckets > 1 ? "1" : "0", String.valueOf(offset));
+        if (result != NEED_STEAL) {
+            return result;
+        }
+
+        // 2.从随机的起点依次去其他桶借，避免所有人都去借同一个桶
+        int start = ThreadLocalRandom.current().nextInt(buckets);
+        for (int i = 0; i < buckets; i++) {
+            int bucket = (start + i) % buckets;
+            if (bucket == home) {
+                continue;
+            }
+            if (execute(STEAL_SCRIPT, keys(publish ? streamKey(voucherId, bucket) : null, stockKey(voucherId, bucket)),
+                    args) == OK) {
+                return OK;
+            }
+        }
+
+        // 3.都没有库存了：删掉占位
+        if (offset >= 0) {
+            stringRedisTemplate.opsForValue().setBit(orderKey, offset, false);
+        } else {
+            stringRedisTemplate.opsForSet().remove(orderKey, args[1]);
+        }
+        return NO_STOCK;
+    }
+
+    // 和doAcquire的步骤一样，每一步等上一步的结果回来再异步发出去
+    private CompletableFuture<Integer> doAcquireAsync(Long voucherId, Long userId, long orderId, boolean publish) {
+        String[] args = {voucherId.toString(), userId.toString(), String.valueOf(orderId)};
+        // 分桶方式有本地缓存，缓存未命中时在调用线程上同步查一次
+        Layout layout = layout(voucherId);
+        int buckets = layout.buckets;
+        if (buckets == 0) {
+            return executeAsync(SECKILL_SCRIPT, keys(publish ? RedisConstants.SECKILL_ORDER_STREAM_KEY : null,
+                    RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                    RedisConstants.SECKILL_ORDER_KEY + voucherId, RedisConstants.SECKILL_WINDOW_KEY + voucherId),
+                    args[0], args[1], args[2], "0");
+        }
+
+        // 1.本桶
+        int home = layout.bucketOf(userId);
+        long offset = layout.offsetOf(userId, properties.getBitmapMaxOffset());
+        String orderKey = offset >= 0 ? bitmapKey(voucherId, home) : orderKey(voucherId, home);
+        return executeAsync(SECKILL_SCRIPT, keys(publish ? streamKey(voucherId, home) : null,
+                stockKey(voucherId, home), orderKey, windowKey(voucherId, home)),
+                args[0], args[1], args[2], buckets > 1 ? "1" : "0", String.valueOf(offset))
+                .thenCompose(result -> {
+                    if (result != NEED_STEAL) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    // 2.去其他桶借
+                    int start = ThreadLocalRandom.current().nextInt(buckets);
+                    return stealAsync(voucherId, publish, args, home, start, 0, buckets).thenCompose(stolen -> {
+                        if (stolen) {
+                            return CompletableFuture.completedFuture(OK);
+                        }
+                        // 3.都没有库存了：删掉占位
+                        Mono<?> release = offset >= 0
+                                ? reactiveStringRedisTemplate.opsForValue().setBit(orderKey, offset, false)
+                                : reactiveStringRedisTemplate.opsForSet().remove(orderKey, args[1]);
+                        return release.toFuture().thenApply(r -> NO_STOCK);
+                    });
+                });
+    }
+
+    // 从start开始依次借第i个桶，借到了就停
+    private CompletableFuture<Boolean> stealAsync(Long voucherId, boolean publish, String[] args,
+                                                  int home, int start, int i, int buckets) {
+        if (i >= buckets) {
+            return CompletableFuture.completedFuture(false);
+        }
+        int bucket = (start + i) % buckets;
+        if (bucket == home) {
+            return stealAsync(voucherId, publish, args, home, start, i + 1, buckets);
+        }
+        return executeAsync(STEAL_SCRIPT, keys(publish ? streamKey(voucherId, bucket) : null, stockKey(voucherId, bucket)), args)
+                .thenCompose(result -> result == OK
+                        ? CompletableFuture.completedFuture(true)
+                        : stealAsync(voucherId, publish, args, home, start, i + 1, buckets));
+    }
+
+    /**
+     * 剩余的总库存
+     */
+    public long remaining(Long voucherId) {
+        long total = 0L;
+        for (long stock : bucketStocks(voucherId)) {
+            total += stock;
+        }
+        return total;
+    }
+
+    /**
+     * 每个桶的库存，没分桶的老数据只有一个
+     */
+    public List<Long> bucketStocks(Long voucherId) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys(voucherId));
+        List<Long> stocks = new ArrayList<>();
+        if (values != null) {
+            for (String value : values) {
+                stocks.add(value == null ? 0L : Long.parseLong(value));
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * redis中记录的下单用户数：位图BITCOUNT加上set的SCARD，一次pipeline
+     */
+    public long purchasedCount(Long voucherId) {
+        Layout layout = layout(voucherId);
+        List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (layout.buckets == 0) {
+                connection.sCard(bytes(RedisConstants.SECKILL_ORDER_KEY + voucherId));
+            }
+            for (int i = 0; i < layout.buckets; i++) {
+                if (layout.bitmap) {
+                    connection.bitCount(bytes(bitmapKey(voucherId, i)));
+                }
+                connection.sCard(bytes(orderKey(voucherId, i)));
+            }
+            return null;
+        });
+        long total = 0L;
+        for (Object count : counts) {
+            total += count == null ? 0L : ((Number) count).longValue();
+        }
+        return total;
+    }
+
+    /**
+     * 对账修正库存：原子的比较再修正，库存在对账之后变过就放弃
+     * @param stocks 对账时读到的每个桶的库存，和bucketStocks的顺序一致
+     * @param delta 总库存的修正量：加到库存最少的桶上，减的时候从库存最多的桶上减
+     * @return 是否修正了
+     */
+    public boolean correctStock(Long voucherId, List<Long> stocks, long delta) {
+        if (delta == 0 || stocks.isEmpty()) {
+            return false;
+        }
+        int bucket = 0;
+        for (int i = 1; i < stocks.size(); i++) {
+            boolean better = delta > 0 ? stocks.get(i) < stocks.get(bucket) : stocks.get(i) > stocks.get(bucket);
+            if (better) {
+                bucket = i;
+            }
+        }
+        String key = stockKeys(voucherId).get(bucket);
+        boolean corrected = execute(CORRECT_SCRIPT, Collections.singletonList(key),
+                String.valueOf(stocks.get(bucket)), String.valueOf(delta)) == 1;
+        if (corrected && delta > 0) {
+            // 补回了库存：清除各个节点的售罄标记
+            soldOutFlags.clear(voucherId);
+        }
+        return corrected;
+    }
+
+    private List<String> stockKeys(Long voucherId) {
+        int buckets = layout(voucherId).buckets;
+        List<String> keys = new ArrayList<>();
+        if (buckets == 0) {
+            keys.add(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+        }
+        for (int i = 0; i < buckets; i++) {
+            keys.add(stockKey(voucherId, i));
+        }
+        return keys;
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * redis中是否已经有这个秒杀券：分桶的看桶数key，没分桶的老数据看库存key，不走本地缓存
+     */
+    public boolean isLoaded(Long voucherId) {
+        Long count = stringRedisTemplate.countExistingKeys(Arrays.asList(RedisConstants.SECKILL_BUCKETS_KEY + voucherId,
+                RedisConstants.SECKILL_STOCK_KEY + voucherId));
+        return count != null && count > 0;
+    }
+
+    /**
+     * 归档结束的秒杀活动：剩余库存和下单用户数写到seckill:archive:{voucherId}，再删掉库存、订单、时间窗口、桶数这些key
+     * @return 归档的汇总
+     */
+    public Map<String, String> archive(Long voucherId, long archiveTtlSeconds) {
+        Map<String, String> summary = new HashMap<>(4);
+        summary.put("stock", String.valueOf(remaining(voucherId)));
+        summary.put("buyers", String.valueOf(purchasedCount(voucherId)));
+        summary.put("archivedAt", String.valueOf(System.currentTimeMillis()));
+        String archiveKey = RedisConstants.SECKILL_ARCHIVE_KEY + voucherId;
+        stringRedisTemplate.opsForHash().putAll(archiveKey, summary);
+        stringRedisTemplate.expire(archiveKey, archiveTtlSeconds, TimeUnit.SECONDS);
+
+        Layout layout = layout(voucherId);
+        List<String> keys = new ArrayList<>(stockKeys(voucherId));
+        if (layout.buckets == 0) {
+            keys.add(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+            keys.add(RedisConstants.SECKILL_WINDOW_KEY + voucherId);
+        }
+        for (int i = 0; i < layout.buckets; i++) {
+            keys.add(orderKey(voucherId, i));
+            keys.add(bitmapKey(voucherId, i));
+            keys.add(windowKey(voucherId, i));
+        }
+        keys.add(RedisConstants.SECKILL_BUCKETS_KEY + voucherId);
+        // 大的set和位图用UNLINK在后台释放，不阻塞redis
+        stringRedisTemplate.unlink(keys);
+        layouts.invalidate(voucherId);
+        // 其他节点也要丢掉缓存的分桶方式
+        soldOutFlags.reload(voucherId);
+        return summary;
+    }
+
+    private static long epochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 桶数，0表示没分桶
+     */
+    public int bucketCount(Long voucherId) {
+        return layout(voucherId).buckets;
+    }
+
+    /**
+     * 一人一单是否用位图记录
+     */
+    public boolean isBitmap(Long voucherId) {
+        return layout(voucherId).bitmap;
+    }
+
+    /**
+     * seckill:buckets:{voucherId}：桶数 或者 桶数:bitmap，没有这个key是没分桶的老数据
+     *  两个key都没有说明还没预热：按老数据处理但是不缓存，否则别的节点预热之后，本节点还会在缓存过期前一直用老数据的key，
+     *  所有请求都库存不足，还会把这个优惠券广播成售罄。
+     */
+    private Layout layout(Long voucherId) {
+        Layout layout = layouts.getIfPresent(voucherId);
+        if (layout != null) {
+            return layout;
+        }
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_BUCKETS_KEY + voucherId);
+        if (value == null) {
+            layout = new Layout(0, false);
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_STOCK_KEY + voucherId))) {
+                layouts.put(voucherId, layout);
+            }
+            return layout;
+        }
+        boolean bitmap = value.endsWith(BITMAP_SUFFIX);
+        String count = bitmap ? value.substring(0, value.length() - BITMAP_SUFFIX.length()) : value;
+        layout = new Layout(Integer.parseInt(count), bitmap);
+        layouts.put(voucherId, layout);
+        return layout;
+    }
+
+    public static String stockKey(Long voucherId, int bucket) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static String orderKey(Long voucherId, int bucket) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    // 和orderKey在同一个slot
+    public static String bitmapKey(Long voucherId, int bucket) {
+        return RedisConstants.SECKILL_ORDER_BITMAP_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    // 和同一个桶的库存key在同一个slot
+    public static String windowKey(Long voucherId, int bucket) {
+        return RedisConstants.SECKILL_WINDOW_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+
+    // 和同一个桶的库存key在同一个slot
+    public static String streamKey(Long voucherId, int bucket) {
+        return RedisConstants.SECKILL_ORDER_STREAM_KEY + ":{" + voucherId + ":" + bucket + "}";
+    }
+
+    public static int bucketOf(Long userId, int buckets) {
+        // 打散连续的userId
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) buckets);
+    }
+
+    private int execute(DefaultRedisScript<Long> script, List<String> keys, String... args) {
+        Long result = stringRedisTemplate.execute(script, keys, (Object[]) args);
+        return result == null ? NO_STOCK : result.intValue();
+    }
+
+    private CompletableFuture<Integer> executeAsync(DefaultRedisScript<Long> script, List<String> keys, String... args) {
+        return reactiveStringRedisTemplate.execute(script, keys, Arrays.asList(args))
+                .next()
+                .map(Long::intValue)
+                .defaultIfEmpty(NO_STOCK)
+                .toFuture();
+    }
+
+    // 消息队列的key放在最后，不发消息时不传
+    private static List<String> keys(String streamKey, String... keys) {
+        List<String> list = new ArrayList<>(Arrays.asList(keys));
+        if (streamKey != null) {
+            list.add(streamKey);
+        }
+        return list;
+    }
+
+    /**
+     * 分桶方式
+     */
+    private static class Layout {
+
+        // 桶数，0表示没分桶
+        private final int buckets;
+
+        // 一人一单是否用位图
+        private final boolean bitmap;
+
+        private Layout(int buckets, boolean bitmap) {
+            this.buckets = buckets;
+            this.bitmap = bitmap;
+        }
+
+        // 位图模式按取模路由，桶内的偏移量才是连续的
+        private int bucketOf(Long userId) {
+            return bitmap ? (int) Math.floorMod(userId, (long) buckets) : SeckillStockManager.bucketOf(userId, buckets);
+        }
+
+        // 在本桶位图中的偏移量，-1表示用set
+        private long offsetOf(Long userId, long maxOffset) {
+            if (!bitmap || userId < 0) {
+                return -1L;
+            }
+            long offset = userId / buckets;
+            return offset <= maxOffset ? offset : -1L;
+        }
+    }
+
+    /**
+     * 组合券的下单结果
+     */
+    public static class BundleResult {
+
+        // OK、NO_STOCK、DUPLICATE
+        private final int result;
+
+        // 不满足的优惠券在请求中的下标，成功时是-1
+        private final int index;
+
+        private BundleResult(int result, int index) {
+            this.result = result;
+            this.index = index;
+        }
+
+        public int getResult() {
+            return result;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+}
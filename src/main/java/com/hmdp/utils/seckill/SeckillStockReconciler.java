@@ -0,0 +1,363 @@
+package com.hmdp.utils.seckill;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 描述：秒杀库存的redis和mysql对账
+ *
+ *  异步下单后，消费者挂了或者消息进了死信队列，seckill:stock:*和tb_seckill_voucher.stock就对不上了。
+ *  1.定时按voucher_id游标分批读进行中（或者刚结束）的秒杀券，每批一条GROUP BY统计订单数，不扫订单表的行。
+ *  2.每个秒杀券比较：redis库存 vs 数据库库存，redis下单用户数 vs 数据库订单数，有差异的写到对账报告。
+ *  3.修正（repair=true时）：连续两次对账读到的四个数都一样，只能说明两次对账时这个秒杀券的数没变，
+ *    消费者卡住、消息还在pending-list中时数也不会变，这时修正会把还没落库的订单的库存加回去，造成超卖。
+ *    所以修正前还要确认没有在途的订单：所有订单stream都没有没投递的消息、XPENDING为0、所有节点的环形缓冲区都没有没处理完的订单，
+ *    都满足时以数据库为准，用lua脚本原子的修正redis库存：库存还是读到的值才修正。下单用户数的差异只报告不修正。
+ *    环形缓冲区在各个节点的内存里：每个节点每heartbeatMillis把在途订单数上报到seckill:ringbuffer:inflight。
+ *  4.每批之间休眠throttleMillis，redis的读都是一次multiGet或者pipeline，不影响正常的秒杀流量。
+ *  5.多个节点只有拿到锁的一个执行。
+ *
+ * @author txl
+ * @date 2026-10-20 10:00
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    private static final String LOCK_KEY = "lock:seckill:reconcile";
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillStockManager seckillStockManager;
+
+    private final VoucherOrderConsumer voucherOrderConsumer;
+
+    private final OrderRingBuffer orderRingBuffer;
+
+    private final RedissonClient redissonClient;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties.Reconcile properties;
+
+    // 上一次对账读到的数：优惠券id -> 快照，用来判断是否稳定
+    private final Map<Long, Snapshot> lastSnapshots = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 心跳单独一个线程：一次对账可能很久，不能耽误上报
+    private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-ring-buffer-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // pid@host：本节点在seckill:ringbuffer:inflight中的field
+    private final String nodeName = ManagementFactory.getRuntimeMXBean().getName();
+
+    // 最近一次的对账报告
+    private volatile Map<String, Object> lastReport = new LinkedHashMap<>();
+
+    public SeckillStockReconciler(ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService,
+                                  SeckillStockManager seckillStockManager, VoucherOrderConsumer voucherOrderConsumer,
+                                  OrderRingBuffer orderRingBuffer, RedissonClient redissonClient,
+                                  StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.seckillStockManager = seckillStockManager;
+        this.voucherOrderConsumer = voucherOrderConsumer;
+        this.orderRingBuffer = orderRingBuffer;
+        this.redissonClient = redissonClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getReconcile();
+    }
+
+    @PostConstruct
+    private void init() {
+        // 本节点不对账也要上报：对账可能在别的节点上执行
+        long heartbeat = properties.getHeartbeatMillis();
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, 0, heartbeat, TimeUnit.MILLISECONDS);
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long interval = properties.getIntervalMillis();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(properties.isRepair());
+            } catch (Exception e) {
+                log.error("秒杀库存对账失败", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+        heartbeatScheduler.shutdownNow();
+    }
+
+    /**
+     * 对账一次
+     * @param repair 是否修正redis库存
+     * @return 对账报告，别的节点正在对账时返回null
+     */
+    public Map<String, Object> reconcile(boolean repair) throws InterruptedException {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        // 不指定租期：每批之间还要休眠，一次对账可能比intervalMillis长，由看门狗续期，对账完之前别的节点拿不到锁
+        if (!lock.tryLock(0, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        try {
+            return doReconcile(repair);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Map<String, Object> lastReport() {
+        return lastReport;
+    }
+
+    private Map<String, Object> doReconcile(boolean repair) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+        List<Map<String, Object>> diffs = new ArrayList<>();
+        Map<Long, Snapshot> snapshots = new HashMap<>();
+        int checked = 0;
+        int repaired = 0;
+        long lastId = 0L;
+        while (true) {
+            // 1.进行中的秒杀券：已经开始（或者马上开始），结束不超过activeGraceMinutes
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("voucher_id", lastId)
+                    .le("begin_time", now.plusMinutes(properties.getActiveLeadMinutes()))
+                    .ge("end_time", now.minusMinutes(properties.getActiveGraceMinutes()))
+                    .orderByAsc("voucher_id")
+                    .last("limit " + properties.getBatchSize())
+                    .list();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+
+            // 2.一条GROUP BY统计这一批的订单数
+            List<Long> ids = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+            Map<Long, Long> orderCounts = countOrders(ids);
+
+            // 3.逐个比较
+            for (SeckillVoucher voucher : vouchers) {
+                Long voucherId = voucher.getVoucherId();
+                if (!seckillStockManager.isLoaded(voucherId)) {
+                    // redis中没有这个秒杀券（还没预热，或者key都丢了等着重新预热）：跳过
+                    continue;
+                }
+                // 库存和下单用户数都是0的也要比较：比如库存key丢了，数据库里还有库存
+                List<Long> stocks = seckillStockManager.bucketStocks(voucherId);
+                long redisStock = stocks.stream().mapToLong(Long::longValue).sum();
+                long redisBuyers = seckillStockManager.purchasedCount(voucherId);
+                checked++;
+                Snapshot snapshot = new Snapshot(redisStock, redisBuyers, voucher.getStock(),
+                        orderCounts.getOrDefault(voucherId, 0L));
+                snapshots.put(voucherId, snapshot);
+                if (snapshot.consistent()) {
+                    continue;
+                }
+
+                Map<String, Object> diff = snapshot.toMap(voucherId);
+                boolean stable = snapshot.equals(lastSnapshots.get(voucherId));
+                diff.put("stable", stable);
+                if (repair && stable && snapshot.stockDrift() != 0) {
+                    // 还有在途的订单：这次不修正，等下一次
+                    String inFlight = inFlight();
+                    if (inFlight != null) {
+                        diff.put("repaired", false);
+                        diff.put("skipReason", inFlight);
+                        diffs.add(diff);
+                        continue;
+                    }
+                    boolean corrected = seckillStockManager.correctStock(voucherId, stocks, snapshot.stockDrift());
+                    diff.put("repaired", corrected);
+                    if (corrected) {
+                        repaired++;
+                        snapshots.remove(voucherId);
+                        log.warn("修正秒杀库存，voucherId = {}，redis库存 {} -> {}", voucherId, snapshot.redisStock, snapshot.dbStock);
+                    }
+                }
+                diffs.add(diff);
+            }
+
+            // 4.限速
+            if (properties.getThrottleMillis() > 0) {
+                Thread.sleep(properties.getThrottleMillis());
+            }
+        }
+        lastSnapshots.clear();
+        lastSnapshots.putAll(snapshots);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("time", now.toString());
+        report.put("costMillis", System.currentTimeMillis() - start);
+        report.put("checked", checked);
+        report.put("drifted", diffs.size());
+        report.put("repaired", repaired);
+        report.put("diffs", diffs);
+        lastReport = report;
+        if (!diffs.isEmpty()) {
+            log.warn("秒杀库存对账：检查{}个，不一致{}个，修正{}个，{}", checked, diffs.size(), repaired, diffs);
+        }
+        return report;
+    }
+
+    // 有在途的订单时返回原因，没有时返回null。查不到时也当作有
+    private String inFlight() {
+        long ringBuffer = orderRingBuffer.inFlight();
+        if (ringBuffer > 0) {
+            return "ringBuffer=" + ringBuffer;
+        }
+        try {
+            String node = ringBufferInFlightNode();
+            if (node != null) {
+                return "ringBuffer@" + node;
+            }
+            return voucherOrderConsumer.hasInFlight() ? "stream" : null;
+        } catch (Exception e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    // 上报本节点环形缓冲区中在途的订单数：在途数:上报时间。节点下线时不删，过期后由对账的节点清理
+    private void heartbeat() {
+        try {
+            stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_RING_BUFFER_IN_FLIGHT_KEY, nodeName,
+                    orderRingBuffer.inFlight() + ":" + System.currentTimeMillis());
+        } catch (Exception e) {
+            log.warn("上报环形缓冲区在途订单数失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 其他节点的环形缓冲区：返回第一个有在途订单的节点，都没有时返回null
+     *  只看intervalMillis内上报过的：能被错误修正的订单在连续两次对账之间一直在途（否则库存会变，快照不稳定），这期间的心跳一定能看到它。
+     *  更久没上报的节点当作已经下线，它缓冲区里的订单不会再落库，正是要修正的差异。下线很久的（重启前的节点名）顺便删掉。
+     */
+    private String ringBufferInFlightNode() {
+        Map<Object, Object> nodes = stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_RING_BUFFER_IN_FLIGHT_KEY);
+        long now = System.currentTimeMillis();
+        String found = null;
+        for (Map.Entry<Object, Object> entry : nodes.entrySet()) {
+            String[] parts = entry.getValue().toString().split(":");
+            long inFlight = Long.parseLong(parts[0]);
+            long age = now - Long.parseLong(parts[1]);
+            if (age > properties.getIntervalMillis() * 10) {
+                stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_RING_BUFFER_IN_FLIGHT_KEY, entry.getKey());
+            } else if (found == null && inFlight > 0 && age <= properties.getIntervalMillis()
+                    && !nodeName.equals(entry.getKey())) {
+                found = entry.getKey() + "=" + inFlight;
+            }
+        }
+        return found;
+    }
+
+    // SELECT voucher_id, COUNT(*) AS cnt FROM tb_voucher_order WHERE voucher_id IN (...) GROUP BY voucher_id
+    private Map<Long, Long> countOrders(List<Long> voucherIds) {
+        List<Map<String, Object>> rows = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "COUNT(*) AS cnt")
+                .in("voucher_id", voucherIds)
+                .groupBy("voucher_id"));
+        Map<Long, Long> counts = new HashMap<>(rows.size() * 2);
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("cnt")).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * 一次对账读到的四个数
+     */
+    private static class Snapshot {
+
+        private final long redisStock;
+
+        private final long redisBuyers;
+
+        private final long dbStock;
+
+        private final long dbOrders;
+
+        private Snapshot(long redisStock, long redisBuyers, long dbStock, long dbOrders) {
+            this.redisStock = redisStock;
+            this.redisBuyers = redisBuyers;
+            this.dbStock = dbStock;
+            this.dbOrders = dbOrders;
+        }
+
+        // 数据库比redis多的库存：消息丢了、进了死信队列时为正，redis数据回滚了时为负
+        private long stockDrift() {
+            return dbStock - redisStock;
+        }
+
+        private boolean consistent() {
+            return redisStock == dbStock && redisBuyers == dbOrders;
+        }
+
+        private Map<String, Object> toMap(Long voucherId) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("voucherId", voucherId);
+            map.put("redisStock", redisStock);
+            map.put("dbStock", dbStock);
+            map.put("redisBuyers", redisBuyers);
+            map.put("dbOrders", dbOrders);
+            map.put("stockDrift", stockDrift());
+            map.put("buyerDrift", redisBuyers - dbOrders);
+            return map;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return redisStock == other.redisStock && redisBuyers == other.redisBuyers
+                    && dbStock == other.dbStock && dbOrders == other.dbOrders;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(redisStock) * 31 + Long.hashCode(dbStock);
+        }
+    }
+}
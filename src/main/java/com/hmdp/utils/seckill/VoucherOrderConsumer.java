@@ -0,0 +1,592 @@
+package com.hmdp.utils.seckill;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollectionUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 描述：批量消费stream.orders和分桶的stream.orders:{voucherId:i}中的订单消息
+ *
+ *  原来的VoucherOrderHandler1每次读1条消息，每条消息加一次Redisson锁，一条UPDATE、一条INSERT，再ACK这一条。
+ *  1.读到第一条消息后最多再等maxWaitMillis，凑够batchSize条为一批。
+ *  2.一批订单一个事务：一条多行INSERT，每个优惠券一条 stock = stock - k，见IVoucherOrderService#createVoucherOrders。
+ *    一人一单由唯一索引保证，不再按用户加锁。
+ *  3.整批成功后按stream分组XACK整批的消息。整批失败时逐条重试，失败的消息留在pending-list中。
+ *  4.每个节点threads个消费者，名字是 pid@host-序号，在组内唯一，多个节点可以水平扩展。
+ *  5.原来的handlePendingMessage只重读自己的pending-list，消费者挂了它的消息就没人管了。
+ *    现在定时XPENDING扫描整个组，空闲超过claimIdleMillis的消息XCLAIM到本节点重新处理，
+ *    投递次数达到maxDeliveries的转到死信stream再ACK。
+ *    解析不了的消息重试也没用，读到时直接转到死信，不会拖住整批，也不会一直留在pending-list里挡住后面的接管。
+ *  6.处理完一批后把订单的终态写到OrderStatusStore，转到死信的记为FAILED。
+ *  7.组合券的消息带了多个订单行（lines），和其他消息一起进批次；逐条重试时一条组合券消息的所有订单行还是一个事务。
+ *  8.分桶的秒杀券每个桶一个stream，和本桶的库存在同一个slot（见SeckillStockManager）。
+ *    每隔streamRefreshMillis读一次stream.orders:index，发现新的stream时创建消费者组；优惠券归档后、消息都处理完的stream删掉。
+ *    这些stream在不同的slot上，XREADGROUP不能一次阻塞读多个：stream个数不超过消费者个数时每个消费者读所有stream，
+ *    否则按下标分给各个消费者，一轮非阻塞地读自己的stream（起点轮换，避免一个忙的stream占满批次），都没有消息时休眠pollMillis。
+ *
+ * @author txl
+ * @date 2026-10-18 22:00
+ */
+@Slf4j
+@Component
+public class VoucherOrderConsumer {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillProperties.Consumer properties;
+
+    private final OrderStatusStore orderStatusStore;
+
+    // pid@host：重启后是新的消费者，老消费者的pending消息由claim接管
+    private final String consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+
+    private final Set<String> consumerNames = ConcurrentHashMap.newKeySet();
+
+    // 要读的stream：第一个是stream.orders，之后是登记过的分桶stream
+    private volatile List<String> streams = Collections.singletonList(RedisConstants.SECKILL_ORDER_STREAM_KEY);
+
+    // 已经创建过消费者组的stream
+    private final Set<String> groups = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService claimScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "voucher-order-claimer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running = true;
+
+    // 指标
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder batchFailures = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder removedStreams = new LongAdder();
+
+    public VoucherOrderConsumer(StringRedisTemplate stringRedisTemplate, IVoucherOrderService voucherOrderService,
+                                SeckillProperties seckillProperties, OrderStatusStore orderStatusStore) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.voucherOrderService = voucherOrderService;
+        this.properties = seckillProperties.getConsumer();
+        this.orderStatusStore = orderStatusStore;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(properties.getThreads(),
+                r -> new Thread(r, "voucher-order-consumer-" + threadIndex.incrementAndGet()));
+    }
+
+    @PostConstruct
+    private void init() {
+        createGroup(RedisConstants.SECKILL_ORDER_STREAM_KEY);
+        refreshStreams();
+        for (int i = 0; i < properties.getThreads(); i++) {
+            String name = consumerPrefix + "-" + i;
+            int index = i;
+            consumerNames.add(name);
+            executor.submit(() -> consume(name, index));
+        }
+        String claimer = consumerPrefix + "-claim";
+        consumerNames.add(claimer);
+        long interval = properties.getClaimIntervalMillis();
+        claimScheduler.scheduleWithFixedDelay(() -> reclaim(claimer), interval, interval, TimeUnit.MILLISECONDS);
+        long refresh = properties.getStreamRefreshMillis();
+        claimScheduler.scheduleWithFixedDelay(this::refreshStreams, refresh, refresh, TimeUnit.MILLISECONDS);
+        log.info("开始批量消费Stream消息队列中的订单消息，消费者：{}，stream个数：{}", consumerNames, streams.size());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        claimScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // XGROUP CREATE stream group1 0 MKSTREAM：已经存在时会报BUSYGROUP，忽略
+    private void createGroup(String stream) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xGroupCreate(stream.getBytes(StandardCharsets.UTF_8),
+                        RedisConstants.SECKILL_ORDER_GROUP, ReadOffset.from("0"), true);
+                return null;
+            });
+        } catch (Exception e) {
+            log.debug("消费者组已存在，stream = {}：{}", stream, e.getMessage());
+        }
+        groups.add(stream);
+    }
+
+    /**
+     * 读stream.orders:index：新登记的stream创建消费者组，优惠券已经归档（桶数key没了）并且消息都处理完的stream删掉
+     */
+    private void refreshStreams() {
+        try {
+            Map<Object, Object> index = stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_ORDER_STREAM_INDEX_KEY);
+            List<String> current = new ArrayList<>(index.size() + 1);
+            current.add(RedisConstants.SECKILL_ORDER_STREAM_KEY);
+            for (Map.Entry<Object, Object> entry : new TreeMap<>(index).entrySet()) {
+                String stream = entry.getKey().toString();
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_BUCKETS_KEY + entry.getValue()))
+                        && removeIfDrained(stream)) {
+                    continue;
+                }
+                if (!groups.contains(stream)) {
+                    createGroup(stream);
+                }
+                current.add(stream);
+            }
+            streams = Collections.unmodifiableList(current);
+        } catch (Exception e) {
+            log.error("读取订单消息队列的登记失败：{}", e.getMessage());
+        }
+    }
+
+    // 已经归档的优惠券的stream：没有在途的消息时删掉，还有时等下一次
+    private boolean removeIfDrained(String stream) {
+        if (hasInFlight(stream)) {
+            return false;
+        }
+        stringRedisTemplate.delete(stream);
+        stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ORDER_STREAM_INDEX_KEY, stream);
+        groups.remove(stream);
+        removedStreams.increment();
+        log.info("优惠券已经归档，删除消费完的订单消息队列 {}", stream);
+        return true;
+    }
+
+    // 只读新消息：处理失败留在pending-list中的，空闲超时后由reclaim接管
+    private void consume(String consumerName, int index) {
+        int cursor = 0;
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                List<String> owned = owned(index);
+                List<MapRecord<String, Object, Object>> batch;
+                if (owned.size() == 1) {
+                    batch = readBatch(consumerName, owned.get(0));
+                } else {
+                    batch = pollBatch(consumerName, owned, cursor++);
+                }
+                if (!batch.isEmpty()) {
+                    handle(batch);
+                } else if (owned.size() != 1) {
+                    Thread.sleep(properties.getPollMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.error("批量处理订单异常，消费者 = {}：{}", consumerName, e.getMessage());
+                try {
+                    // 预防如果频繁出现异常
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // 第index个消费者要读的stream：stream不多时都读，多了按下标分
+    private List<String> owned(int index) {
+        List<String> all = streams;
+        int threads = properties.getThreads();
+        if (all.size() <= threads) {
+            return all;
+        }
+        List<String> owned = new ArrayList<>(all.size() / threads + 1);
+        for (int i = index; i < all.size(); i += threads) {
+            owned.add(all.get(i));
+        }
+        return owned;
+    }
+
+    // 只有一个stream：阻塞读，读到第一条后最多再等maxWaitMillis凑满一批
+    private List<MapRecord<String, Object, Object>> readBatch(String consumerName, String stream) {
+        int batchSize = properties.getBatchSize();
+        List<MapRecord<String, Object, Object>> batch = read(consumerName, stream, batchSize, properties.getBlockMillis());
+        if (batch.isEmpty() || batch.size() >= batchSize) {
+            return batch;
+        }
+        batch = new ArrayList<>(batch);
+        long deadline = System.currentTimeMillis() + properties.getMaxWaitMillis();
+        long remaining;
+        while (batch.size() < batchSize && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            List<MapRecord<String, Object, Object>> more = read(consumerName, stream, batchSize - batch.size(), remaining);
+            if (more.isEmpty()) {
+                break;
+            }
+            batch.addAll(more);
+        }
+        return batch;
+    }
+
+    // 多个stream：从cursor开始一轮非阻塞读，读到了消息就最多再等maxWaitMillis凑满一批
+    private List<MapRecord<String, Object, Object>> pollBatch(String consumerName, List<String> owned, int cursor)
+            throws InterruptedException {
+        int batchSize = properties.getBatchSize();
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+        long deadline = 0L;
+        while (batch.size() < batchSize) {
+            int before = batch.size();
+            for (int i = 0; i < owned.size() && batch.size() < batchSize; i++) {
+                String stream = owned.get(Math.floorMod(cursor + i, owned.size()));
+                batch.addAll(read(consumerName, stream, batchSize - batch.size(), 0L));
+            }
+            if (batch.isEmpty()) {
+                return batch;
+            }
+            if (deadline == 0L) {
+                deadline = System.currentTimeMillis() + properties.getMaxWaitMillis();
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            if (batch.size() == before) {
+                Thread.sleep(Math.min(remaining, properties.getPollMillis()));
+            }
+        }
+        return batch;
+    }
+
+    // XREADGROUP GROUP group1 consumerName COUNT count [BLOCK blockMillis] STREAMS stream >
+    private List<MapRecord<String, Object, Object>> read(String consumerName, String stream, int count, long blockMillis) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (blockMillis > 0) {
+            options = options.block(Duration.ofMillis(blockMillis));
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName), options,
+                StreamOffset.create(stream, ReadOffset.lastConsumed()));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    private void handle(List<MapRecord<String, Object, Object>> batch) {
+        batches.increment();
+        messages.add(batch.size());
+        // 每条消息的订单：普通消息一个，组合券消息多个
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>(batch.size());
+        List<List<VoucherOrder>> messageOrders = new ArrayList<>(batch.size());
+        List<VoucherOrder> orders = new ArrayList<>(batch.size());
+        for (MapRecord<String, Object, Object> record : batch) {
+            List<VoucherOrder> lines;
+            try {
+                lines = toOrders(record);
+            } catch (Exception e) {
+                // 格式不对的消息重试多少次都一样：直接转到死信，不影响同一批的其他消息
+                log.error("订单消息解析失败，转到死信队列，stream = {}，消息id = {}，{}", record.getStream(), record.getId(),
+                        e.getMessage());
+                deadLetter(record.getStream(), record.getId(), record,
+                        Collections.singletonMap("error", "解析失败：" + e.getMessage()));
+                continue;
+            }
+            records.add(record);
+            messageOrders.add(lines);
+            orders.addAll(lines);
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+
+        // 1.整批一个事务，成功后按stream分组ACK
+        try {
+            List<Long> persisted = voucherOrderService.createVoucherOrders(orders);
+            ack(records);
+            markStatus(orders, persisted);
+            return;
+        } catch (Exception e) {
+            batchFailures.increment();
+            log.warn("批量创建订单失败，逐条重试，消息个数 = {}，{}", records.size(), e.getMessage());
+        }
+
+        // 2.逐条消息重试：组合券的所有订单行还是一个事务，失败的留在pending-list中
+        for (int i = 0; i < messageOrders.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            try {
+                List<VoucherOrder> single = messageOrders.get(i);
+                List<Long> persisted = voucherOrderService.createVoucherOrders(single);
+                ack(Collections.singletonList(record));
+                markStatus(single, persisted);
+            } catch (Exception e) {
+                failed.increment();
+                log.error("创建订单失败，stream = {}，消息id = {}，订单个数 = {}，{}", record.getStream(), record.getId(),
+                        messageOrders.get(i).size(), e.getMessage());
+            }
+        }
+    }
+
+    // 订单的终态：持久化了的是CREATED，被唯一索引跳过的是FAILED。写失败不影响消费，客户端看到的还是PENDING
+    private void markStatus(List<VoucherOrder> orders, List<Long> persisted) {
+        try {
+            Set<Long> created = new HashSet<>(persisted);
+            List<Long> failed = new ArrayList<>();
+            for (VoucherOrder order : orders) {
+                if (!created.contains(order.getId())) {
+                    failed.add(order.getId());
+                }
+            }
+            orderStatusStore.mark(created, failed);
+        } catch (Exception e) {
+            log.error("写入订单状态失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 接管空闲太久的pending消息：每个stream分别扫描
+     *  XCLAIM带了min-idle-time：多个节点同时claim同一条消息时，只有第一个能成功，之后它的空闲时间被重置。
+     *  Redis 6.2才有XAUTOCLAIM，这里用XPENDING + XCLAIM。
+     */
+    private void reclaim(String claimer) {
+        for (String stream : streams) {
+            try {
+                reclaim(claimer, stream);
+            } catch (Exception e) {
+                log.error("接管pending消息异常，stream = {}：{}", stream, e.getMessage());
+            }
+        }
+    }
+
+    private void reclaim(String claimer, String stream) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(stream,
+                RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), properties.getClaimBatchSize());
+        List<RecordId> toClaim = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < properties.getClaimIdleMillis()) {
+                continue;
+            }
+            if (message.getTotalDeliveryCount() >= properties.getMaxDeliveries()) {
+                deadLetter(stream, message);
+            } else {
+                toClaim.add(message.getId());
+            }
+        }
+        if (!toClaim.isEmpty()) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                    stream, RedisConstants.SECKILL_ORDER_GROUP, claimer,
+                    Duration.ofMillis(properties.getClaimIdleMillis()), toClaim.toArray(new RecordId[0]));
+            if (CollectionUtil.isNotEmpty(records)) {
+                claimed.add(records.size());
+                log.info("接管了{}条空闲的订单消息，stream = {}", records.size(), stream);
+                handle(records);
+            }
+        }
+        removeIdleConsumers(stream);
+    }
+
+    // 投递次数用完的pending消息转到死信：带上最后的消费者和投递次数
+    private void deadLetter(String stream, PendingMessage message) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                stream, Range.closed(message.getIdAsString(), message.getIdAsString()));
+        Map<String, String> info = new HashMap<>();
+        info.put("consumer", message.getConsumerName());
+        info.put("deliveries", String.valueOf(message.getTotalDeliveryCount()));
+        deadLetter(stream, message.getId(), CollectionUtil.isNotEmpty(records) ? records.get(0) : null, info);
+        log.error("订单消息投递{}次仍然失败，转到死信队列，stream = {}，消息id = {}", message.getTotalDeliveryCount(),
+                stream, message.getIdAsString());
+    }
+
+    /**
+     * 转到死信stream：带上原stream、原消息id和info，再ACK。消息已经被裁掉了（record为null）只ACK
+     *  解析不了的消息没有订单可以标记失败，也照样XADD和ACK，否则它会一直留在pending-list里，每次接管都卡在它这里。
+     */
+    private void deadLetter(String stream, RecordId id, MapRecord<String, Object, Object> record, Map<String, String> info) {
+        if (record != null) {
+            Map<String, String> value = new HashMap<>();
+            record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+            value.put("sourceStream", stream);
+            value.put("sourceId", id.getValue());
+            value.putAll(info);
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(value)
+                    .withStreamKey(RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY));
+            try {
+                List<Long> orderIds = toOrders(record).stream().map(VoucherOrder::getId).collect(Collectors.toList());
+                orderStatusStore.mark(Collections.emptyList(), orderIds);
+            } catch (Exception e) {
+                log.error("死信消息解析失败，不标记订单状态，stream = {}，消息id = {}，{}", stream, id, e.getMessage());
+            }
+        }
+        stringRedisTemplate.opsForStream().acknowledge(stream, RedisConstants.SECKILL_ORDER_GROUP, id);
+        deadLettered.increment();
+    }
+
+    // 重启过的节点留下的消费者：没有pending消息、空闲很久的从组里删掉，避免XINFO CONSUMERS越来越长
+    private void removeIdleConsumers(String stream) {
+        long maxIdle = properties.getClaimIdleMillis() * 10;
+        stringRedisTemplate.opsForStream().consumers(stream, RedisConstants.SECKILL_ORDER_GROUP)
+                .stream()
+                .filter(c -> c.pendingCount() == 0 && c.idleTimeMs() > maxIdle && !consumerNames.contains(c.consumerName()))
+                .forEach(c -> stringRedisTemplate.opsForStream().deleteConsumer(stream,
+                        Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, c.consumerName())));
+    }
+
+    // 普通消息：userId、voucherId、orderId；组合券消息：userId、lines（优惠券id:订单id,优惠券id:订单id）
+    private static List<VoucherOrder> toOrders(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> message = record.getValue();
+        Object lines = message.get("lines");
+        if (lines == null) {
+            VoucherOrder order = BeanUtil.fillBeanWithMap(message, new VoucherOrder(), true);
+            order.setId(Long.parseLong((String) message.get("orderId")));
+            return Collections.singletonList(order);
+        }
+        Long userId = Long.valueOf((String) message.get("userId"));
+        List<VoucherOrder> orders = new ArrayList<>();
+        for (String line : ((String) lines).split(",")) {
+            String[] parts = line.split(":");
+            VoucherOrder order = new VoucherOrder();
+            order.setUserId(userId);
+            order.setVoucherId(Long.valueOf(parts[0]));
+            order.setId(Long.valueOf(parts[1]));
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    // 按stream分组ACK：不同的stream可能在不同的slot，不能一条命令ACK
+    private void ack(List<MapRecord<String, Object, Object>> records) {
+        Map<String, List<RecordId>> ids = new LinkedHashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            ids.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+        }
+        ids.forEach((stream, recordIds) -> stringRedisTemplate.opsForStream().acknowledge(stream,
+                RedisConstants.SECKILL_ORDER_GROUP, recordIds.toArray(new RecordId[0])));
+    }
+
+    /**
+     * 消费指标和积压情况，所有stream加起来
+     *  lagMillis：stream最新消息和组内最后投递的消息之间的时间差，也就是还没投递的消息积压了多久，取所有stream中最大的
+     *  pending：已经投递还没ACK的消息，pendingPerConsumer可以看出哪个消费者卡住了
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        List<String> current = streams;
+        map.put("consumers", consumerNames);
+        map.put("streams", current.size());
+        map.put("removedStreams", removedStreams.sum());
+        map.put("batches", batches.sum());
+        map.put("messages", messages.sum());
+        map.put("avgBatchSize", batches.sum() == 0 ? 0 : (double) messages.sum() / batches.sum());
+        map.put("batchFailures", batchFailures.sum());
+        map.put("failed", failed.sum());
+        map.put("claimed", claimed.sum());
+        map.put("deadLettered", deadLettered.sum());
+        try {
+            long streamLength = 0L;
+            long pending = 0L;
+            long lagMillis = 0L;
+            Map<String, Long> pendingPerConsumer = new TreeMap<>();
+            for (String stream : current) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+                    continue;
+                }
+                StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(stream);
+                streamLength += info.streamLength();
+                StreamInfo.XInfoGroup group = group(stream);
+                if (group != null) {
+                    pending += group.pendingCount();
+                    lagMillis = Math.max(lagMillis, timestamp(info.lastGeneratedId()) - timestamp(group.lastDeliveredId()));
+                }
+                stringRedisTemplate.opsForStream().pending(stream, RedisConstants.SECKILL_ORDER_GROUP)
+                        .getPendingMessagesPerConsumer()
+                        .forEach((consumer, count) -> pendingPerConsumer.merge(consumer, count, Long::sum));
+            }
+            map.put("streamLength", streamLength);
+            map.put("pending", pending);
+            map.put("lagMillis", lagMillis);
+            map.put("pendingPerConsumer", pendingPerConsumer);
+            map.put("deadLetterLength", stringRedisTemplate.opsForStream().size(RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY));
+        } catch (Exception e) {
+            map.put("error", e.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * 是否还有没处理完的订单消息：任何一个stream有就算
+     */
+    public boolean hasInFlight() {
+        for (String stream : streams) {
+            if (hasInFlight(stream)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 组内最后投递的消息不是stream最新的消息：还有没投递的；XPENDING的总数不为0：投递了还没ACK的
+     */
+    private boolean hasInFlight(String stream) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return false;
+        }
+        String lastGeneratedId = stringRedisTemplate.opsForStream().info(stream).lastGeneratedId();
+        StreamInfo.XInfoGroup group = group(stream);
+        if (group == null || !lastGeneratedId.equals(group.lastDeliveredId())) {
+            return true;
+        }
+        return stringRedisTemplate.opsForStream().pending(stream, RedisConstants.SECKILL_ORDER_GROUP)
+                .getTotalPendingMessages() > 0;
+    }
+
+    private StreamInfo.XInfoGroup group(String stream) {
+        return stringRedisTemplate.opsForStream().groups(stream).stream()
+                .filter(g -> RedisConstants.SECKILL_ORDER_GROUP.equals(g.groupName()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static long timestamp(String recordId) {
+        if (recordId == null) {
+            return 0L;
+        }
+        Long timestamp = RecordId.of(recordId).getTimestamp();
+        return timestamp == null ? 0L : timestamp;
+    }
+}
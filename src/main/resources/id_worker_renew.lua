@@ -0,0 +1,13 @@
+-- worker id的key
+local key = KEYS[1]
+-- 当前节点标识
+local owner = ARGV[1]
+-- 租约时长，毫秒
+local leaseMillis = ARGV[2]
+
+-- 还是自己持有才续期：租约过期后被其他节点拿走了，返回0，由调用方重新申请
+if (redis.call('get', key) == owner) then
+    redis.call('pexpire', key, leaseMillis)
+    return 1
+end
+return 0
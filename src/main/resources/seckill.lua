@@ -1,5 +1,20 @@
 -- 创建一个消费者组group1，从消息队列stream.orders的第一条消息开始消费。如果队列不存在则创建
 -- XGROUP CREATE stream.orders group1 0 MKSTREAM
+-- 分桶的消息队列stream.orders:{voucherId:i}由VoucherOrderConsumer从stream.orders:index发现后创建消费者组
+
+-- 库存分桶后，每个用户按userId路由到一个桶，这个脚本只操作这个桶的key：
+-- 库存key：seckill:stock:{voucherId:i}，订单key：seckill:order:{voucherId:i}，{}是hash tag，同一个桶的两个key在同一个slot
+-- bitmap模式下订单key是seckill:order:bm:{voucherId:i}，用户在位图中的偏移量由调用方算好传进来
+-- 活动时间窗口key：seckill:window:{voucherId:i}，值是 开始毫秒:结束毫秒，预热时写入，没有这个key时不检查
+
+-- 库存key
+local stockKey = KEYS[1]
+-- 订单key：记录有哪些用户下了这个优惠券了
+local orderKey = KEYS[2]
+-- 活动时间窗口key
+local windowKey = KEYS[3]
+-- 消息队列的key：不传就不发消息。分桶时是本桶的stream.orders:{voucherId:i}，和库存key在同一个slot
+local streamKey = KEYS[4]
 
 -- 优惠券id
 local voucherId = ARGV[1]
@@ -7,32 +22,83 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 订单id
 local orderId = ARGV[3]
--- 消息队列的key
-local key = KEYS[1]
+-- 本桶库存不足时是否去其他桶借库存：1是
+local steal = ARGV[4]
+-- 用户在位图中的偏移量：不传或者小于0时订单key是set
+local offset = tonumber(ARGV[5] or '-1')
 
--- 库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 订单key：记录有哪些用户下了这个优惠券了
-local orderKey = 'seckill:order:' .. voucherId
+-- 用户是否已经下过单
+local function bought()
+    if (offset >= 0) then
+        return redis.call('getbit', orderKey, offset) == 1
+    end
+    return redis.call('sismember', orderKey, userId) == 1
+end
 
--- 1.判断库存是否充足
-if (tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 库存不足，返回1
-    return 1
+-- 记录用户下单
+local function record()
+    if (offset >= 0) then
+        redis.call('setbit', orderKey, offset, 1)
+    else
+        redis.call('sadd', orderKey, userId)
+    end
 end
 
--- 2.判断用户是否下单 SISMEMBER orderKey userId Set集合中是否有这个用户
-if (redis.call('sismember', orderKey, userId) == 1) then
+-- 活动是否在时间窗口内：0是，4未开始，5已结束。用redis的时间，不依赖各个节点的时钟
+local function window()
+    local value = redis.call('get', windowKey)
+    if (not value) then
+        return 0
+    end
+    local sep = string.find(value, ':')
+    local beginTime = tonumber(string.sub(value, 1, sep - 1))
+    local endTime = tonumber(string.sub(value, sep + 1))
+    -- TIME是不确定的命令：之后还有写命令，要按命令复制（redis 5之前默认复制整个脚本）
+    if (redis.replicate_commands) then
+        redis.replicate_commands()
+    end
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < beginTime) then
+        return 4
+    end
+    if (now >= endTime) then
+        return 5
+    end
+    return 0
+end
+
+-- 0.判断活动时间：未开始返回4，已结束返回5
+local state = window()
+if (state ~= 0) then
+    return state
+end
+
+-- 1.判断用户是否下单 SISMEMBER orderKey userId 或者 GETBIT orderKey offset
+if (bought()) then
     -- 存在，重复下单，返回2
     return 2
 end
 
+-- 2.判断库存是否充足
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    if (steal == '1') then
+        -- 先占住下单资格，再去其他桶借库存，借不到时调用方负责从orderKey中移除，返回3
+        record()
+        return 3
+    end
+    -- 库存不足，返回1
+    return 1
+end
+
 -- 3.下单：扣库存，保存用户
 redis.call('incrby', stockKey, -1)
-redis.call('sadd', orderKey, userId)
+record()
 
--- 4.发送消息到队列中：XADD stream.order * k1 v1 k2 v2 ... *表示redis来生成消息的id
-redis.call('xadd', key, '*', 'userId', userId, 'voucherId', voucherId, 'orderId', orderId)
+-- 4.发送消息到队列中：XADD stream.orders:{voucherId:i} * k1 v1 k2 v2 ... *表示redis来生成消息的id
+if (streamKey) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'orderId', orderId)
+end
 
--- 4.下单成功返回0
-return 0
\ No newline at end of file
+-- 5.下单成功返回0
+return 0
@@ -0,0 +1,86 @@
+-- 组合券秒杀：一次脚本检查并扣减多个优惠券的库存，要么全部成功，要么什么都不改
+
+-- KEYS：每个优惠券依次是 订单key、时间窗口key、本桶库存key、其他桶的库存key...（个数由ARGV中的桶数给出），最后一个是消息队列的key
+-- ARGV[1]：用户id，ARGV[2]：优惠券个数n，之后每个优惠券4个参数：优惠券id、订单id、库存key的个数、位图偏移量（小于0时订单key是set）
+-- 返回 {结果, 第几个优惠券}：0成功，1库存不足，2重复下单，4未开始，5已结束
+
+local userId = ARGV[1]
+local n = tonumber(ARGV[2])
+local streamKey = KEYS[#KEYS]
+
+-- redis的当前时间，毫秒。TIME之后还有写命令，要按命令复制
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1.先全部检查，不修改任何数据
+local orderKeys = {}
+local offsets = {}
+local stockKeys = {}
+local k = 1
+for i = 1, n do
+    local base = 2 + (i - 1) * 4
+    local buckets = tonumber(ARGV[base + 3])
+    local offset = tonumber(ARGV[base + 4])
+    local orderKey = KEYS[k]
+
+    -- 1.1.活动时间：没有时间窗口key时不检查
+    local window = redis.call('get', KEYS[k + 1])
+    if (window) then
+        local sep = string.find(window, ':')
+        if (now < tonumber(string.sub(window, 1, sep - 1))) then
+            return {4, i}
+        end
+        if (now >= tonumber(string.sub(window, sep + 1))) then
+            return {5, i}
+        end
+    end
+
+    -- 1.2.一人一单
+    local bought
+    if (offset >= 0) then
+        bought = redis.call('getbit', orderKey, offset) == 1
+    else
+        bought = redis.call('sismember', orderKey, userId) == 1
+    end
+    if (bought) then
+        return {2, i}
+    end
+
+    -- 1.3.从本桶开始找一个有库存的桶
+    local picked = nil
+    for j = 1, buckets do
+        local stockKey = KEYS[k + 1 + j]
+        if (tonumber(redis.call('get', stockKey) or '0') > 0) then
+            picked = stockKey
+            break
+        end
+    end
+    if (not picked) then
+        return {1, i}
+    end
+
+    orderKeys[i] = orderKey
+    offsets[i] = offset
+    stockKeys[i] = picked
+    k = k + 2 + buckets
+end
+
+-- 2.都满足：扣库存，记录用户，订单行拼成 优惠券id:订单id,优惠券id:订单id
+local lines = {}
+for i = 1, n do
+    local base = 2 + (i - 1) * 4
+    redis.call('incrby', stockKeys[i], -1)
+    if (offsets[i] >= 0) then
+        redis.call('setbit', orderKeys[i], offsets[i], 1)
+    else
+        redis.call('sadd', orderKeys[i], userId)
+    end
+    lines[i] = ARGV[base + 1] .. ':' .. ARGV[base + 2]
+end
+
+-- 3.一条消息带上所有订单行
+redis.call('xadd', streamKey, '*', 'userId', userId, 'lines', table.concat(lines, ','))
+return {0, 0}
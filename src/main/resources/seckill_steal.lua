@@ -0,0 +1,25 @@
+-- 从其他桶借库存：seckill.lua返回3（本桶库存不足，已经占住下单资格）之后调用
+
+-- 被借的桶的库存key
+local stockKey = KEYS[1]
+-- 消息队列的key：不传就不发消息。被借的桶的stream.orders:{voucherId:i}，和被借的库存key在同一个slot
+local streamKey = KEYS[2]
+
+-- 优惠券id
+local voucherId = ARGV[1]
+-- 用户id
+local userId = ARGV[2]
+-- 订单id
+local orderId = ARGV[3]
+
+-- 1.这个桶也没有库存，返回1
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    return 1
+end
+
+-- 2.扣库存，发消息
+redis.call('incrby', stockKey, -1)
+if (streamKey) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'orderId', orderId)
+end
+return 0
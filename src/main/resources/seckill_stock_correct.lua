@@ -0,0 +1,20 @@
+-- 对账修正库存：只有库存还是对账时读到的值才修正，期间有人下单就放弃，下次再对
+
+-- 库存key
+local stockKey = KEYS[1]
+-- 对账时读到的库存
+local expected = tonumber(ARGV[1])
+-- 修正量：可正可负
+local delta = tonumber(ARGV[2])
+
+local current = tonumber(redis.call('get', stockKey) or '0')
+-- 1.库存变了：放弃
+if (current ~= expected) then
+    return 0
+end
+-- 2.修正后不能小于0
+if (current + delta < 0) then
+    return 0
+end
+redis.call('incrby', stockKey, delta)
+return 1
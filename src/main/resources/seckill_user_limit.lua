@@ -0,0 +1,21 @@
+-- 用户的限流key：zset，score是请求时间
+local key = KEYS[1]
+-- 当前时间，毫秒
+local now = tonumber(ARGV[1])
+-- 窗口长度，毫秒
+local window = tonumber(ARGV[2])
+-- 窗口内最多几个请求
+local limit = tonumber(ARGV[3])
+-- 这次请求的唯一标识
+local member = ARGV[4]
+
+-- 1.移除窗口之外的请求
+redis.call('zremrangebyscore', key, 0, now - window)
+-- 2.窗口内的请求数达到上限：拒绝
+if (redis.call('zcard', key) >= limit) then
+    return 0
+end
+-- 3.记录这次请求，key在窗口结束后过期
+redis.call('zadd', key, now, member)
+redis.call('pexpire', key, window)
+return 1
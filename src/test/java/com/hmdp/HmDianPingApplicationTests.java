@@ -4,14 +4,18 @@ import com.hmdp.constant.RedisConstants;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.SpringBootVersion;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -142,4 +146,61 @@ class HmDianPingApplicationTests {
         Long size = stringRedisTemplate.opsForHyperLogLog().size("hll1");
         System.out.println(size);
     }
+
+    /**
+     * 一人一单的内存对比：100w和1000w个下单用户，set和位图（8个桶）分别占多少内存
+     *  用户id是连续的1~n，和自增主键一样。结果用MEMORY USAGE统计，跑完删掉测试的key。
+     *  估算：set超过512个元素后是hashtable编码，每个元素几十个字节，100w个用户几十MB；
+     *       位图一共 n / 8 个字节，100w个用户约122KB，1000w个用户约1.2MB。
+     */
+    @Test
+    @Disabled("往redis写1100w个用户，耗时长、占内存，需要时手动运行")
+    void testPurchaseDedupMemory() {
+        int buckets = 8;
+        for (int n : new int[]{1000000, 10000000}) {
+            String setKey = "test:dedup:set:" + n;
+            String bitmapPrefix = "test:dedup:bm:" + n + ":";
+
+            // 1.每1w个用户一次pipeline
+            for (int from = 1; from <= n; from += 10000) {
+                int begin = from;
+                int end = Math.min(n, from + 9999);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    byte[][] members = new byte[end - begin + 1][];
+                    for (int userId = begin; userId <= end; userId++) {
+                        members[userId - begin] = String.valueOf(userId).getBytes(StandardCharsets.UTF_8);
+                        // 和SeckillStockManager的位图模式一样：userId % 桶数路由，userId / 桶数是偏移量
+                        connection.setBit((bitmapPrefix + userId % buckets).getBytes(StandardCharsets.UTF_8), userId / buckets, true);
+                    }
+                    connection.sAdd(setKey.getBytes(StandardCharsets.UTF_8), members);
+                    return null;
+                });
+            }
+
+            // 2.MEMORY USAGE key SAMPLES 0：统计集合的全部元素
+            long setBytes = memoryUsage(setKey);
+            long bitmapBytes = 0L;
+            for (int i = 0; i < buckets; i++) {
+                bitmapBytes += memoryUsage(bitmapPrefix + i);
+            }
+            System.out.println("users = " + n + ", set = " + setBytes / 1024 + "KB, bitmap = " + bitmapBytes / 1024 + "KB");
+
+            // 3.清理
+            stringRedisTemplate.delete(setKey);
+            for (int i = 0; i < buckets; i++) {
+                stringRedisTemplate.delete(bitmapPrefix + i);
+            }
+
+            // 4.位图一定比set省内存
+            Assertions.assertTrue(bitmapBytes > 0 && bitmapBytes < setBytes,
+                    "users = " + n + ", set = " + setBytes + "B, bitmap = " + bitmapBytes + "B");
+        }
+    }
+
+    private long memoryUsage(String key) {
+        Object bytes = stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("MEMORY",
+                "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8),
+                "SAMPLES".getBytes(StandardCharsets.UTF_8), "0".getBytes(StandardCharsets.UTF_8)));
+        return bytes == null ? 0L : ((Number) bytes).longValue();
+    }
 }
@@ -0,0 +1,203 @@
+package com.hmdp;
+
+import com.hmdp.constant.RedisConstants;
+import com.hmdp.constant.ReqConstant;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.Resource;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述：同步秒杀和异步秒杀的并发对比
+ *
+ *  tomcat只给8个线程，1000个客户端同时请求：
+ *  seckill4在redis往返期间占着tomcat线程，同一时刻最多8个请求在服务端处理中，其余的排队；
+ *  seckill-async发出脚本就释放线程，在途的请求只受连接数限制。
+ *  1.服务端用拦截器统计在途请求数的峰值：请求第一次分派时加一，请求完成（afterCompletion）时减一，
+ *    异步请求在等redis期间不占线程但仍然算在途。断言同步接口的峰值不超过tomcat线程数，异步接口超过。
+ *  2.限流打开，每个用户只允许1次请求：异步请求再分派时如果又被限流一次，会返回429，断言所有请求都成功。
+ *    限流的key只有userId，每次run用不重叠的一段userId（按新建的秒杀券id错开），否则第二次run的用户还在限流窗口内。
+ *  redis在远端（往返时间越长）差距越明显。
+ *
+ * @author txl
+ * @date 2026-10-21 11:20
+ */
+@Slf4j
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=" + SeckillAsyncLoadTest.TOMCAT_THREADS,
+        "server.tomcat.threads.min-spare=" + SeckillAsyncLoadTest.TOMCAT_THREADS,
+        "hmdp.seckill.rate-limit.enabled=true",
+        "hmdp.seckill.rate-limit.voucher-permits-per-second=1000000",
+        "hmdp.seckill.rate-limit.user-limit=1",
+        "hmdp.seckill.rate-limit.user-window-millis=60000",
+        "hmdp.seckill.reconcile.enabled=false",
+        "logging.level.com.hmdp=info"
+})
+@Import(SeckillAsyncLoadTest.InFlightConfig.class)
+@Disabled("每次发4w个请求，会在数据库留下4w个订单和2个秒杀券，需要时手动运行")
+class SeckillAsyncLoadTest {
+
+    static final int TOMCAT_THREADS = 8;
+
+    private static final int CLIENTS = 1000;
+
+    private static final int REQUESTS = 20000;
+
+    // 服务端在途的请求数和峰值
+    private static final AtomicLong IN_FLIGHT = new AtomicLong();
+
+    private static final AtomicLong PEAK_IN_FLIGHT = new AtomicLong();
+
+    static {
+        // HttpURLConnection默认每个地址只保持5个空闲连接
+        System.setProperty("http.maxConnections", String.valueOf(CLIENTS));
+    }
+
+    @Resource
+    private TestRestTemplate restTemplate;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void testAsyncConcurrency() throws InterruptedException {
+        String sync = run("seckill4");
+        long syncPeak = PEAK_IN_FLIGHT.get();
+        String async = run("seckill-async");
+        long asyncPeak = PEAK_IN_FLIGHT.get();
+        log.info("\n{}\n{}", sync, async);
+
+        // 同步接口在途的请求受tomcat线程数限制，异步接口不受
+        Assertions.assertTrue(syncPeak <= TOMCAT_THREADS, "seckill4在途请求峰值 = " + syncPeak);
+        Assertions.assertTrue(asyncPeak > TOMCAT_THREADS, "seckill-async在途请求峰值 = " + asyncPeak);
+    }
+
+    private String run(String endpoint) throws InterruptedException {
+        // 1.新建秒杀券，库存和用户数一样：每个请求都应该成功
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("loadtest-" + endpoint);
+        voucher.setPayValue(100L);
+        voucher.setActualValue(100L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(REQUESTS);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        String prefix = "loadtest-" + endpoint + "-" + voucher.getId() + "-";
+        login(prefix, voucher.getId() * REQUESTS);
+
+        // 2.CLIENTS个客户端一起发，每个用户请求一次
+        IN_FLIGHT.set(0);
+        PEAK_IN_FLIGHT.set(0);
+        String url = "/voucher-order/" + endpoint + "/" + voucher.getId();
+        long[] latencies = new long[REQUESTS];
+        AtomicInteger next = new AtomicInteger();
+        LongAdder succeeded = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(CLIENTS);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        long begin = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            clients.submit(() -> {
+                try {
+                    int i;
+                    while ((i = next.getAndIncrement()) < REQUESTS) {
+                        HttpHeaders headers = new HttpHeaders();
+                        headers.set(ReqConstant.HEADER_AUTHORIZATION, prefix + i);
+                        long start = System.nanoTime();
+                        Result result = restTemplate.postForObject(url, new HttpEntity<>(headers), Result.class);
+                        latencies[i] = System.nanoTime() - start;
+                        if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                            succeeded.increment();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - begin;
+        clients.shutdown();
+
+        // 3.吞吐量和延迟
+        Arrays.sort(latencies);
+        Assertions.assertEquals(REQUESTS, succeeded.sum(), endpoint + "有请求失败");
+        return String.format("%-14s clients=%d requests=%d peakInFlight=%d qps=%.0f p50=%.1fms p99=%.1fms max=%.1fms",
+                endpoint, CLIENTS, REQUESTS, PEAK_IN_FLIGHT.get(), REQUESTS * 1e9 / elapsed,
+                latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6, latencies[REQUESTS - 1] / 1e6);
+    }
+
+    // 给每个用户写一个登录token：用户id是userBase加下标，一次pipeline
+    private void login(String prefix, long userBase) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < REQUESTS; i++) {
+                byte[] key = (RedisConstants.LOGIN_USER_KEY + prefix + i).getBytes(StandardCharsets.UTF_8);
+                connection.hSet(key, "id".getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(userBase + i + 1).getBytes(StandardCharsets.UTF_8));
+                connection.hSet(key, "nickName".getBytes(StandardCharsets.UTF_8),
+                        ("user_" + (userBase + i + 1)).getBytes(StandardCharsets.UTF_8));
+                connection.expire(key, 600L);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 统计服务端在途的请求：异步请求第一次分派时进入，异步结果写回后的再分派结束时离开
+     */
+    @TestConfiguration
+    static class InFlightConfig implements WebMvcConfigurer {
+
+        @Override
+        public void addInterceptors(InterceptorRegistry registry) {
+            registry.addInterceptor(new HandlerInterceptor() {
+                @Override
+                public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                    if (request.getDispatcherType() == DispatcherType.REQUEST) {
+                        long current = IN_FLIGHT.incrementAndGet();
+                        PEAK_IN_FLIGHT.accumulateAndGet(current, Math::max);
+                    }
+                    return true;
+                }
+
+                @Override
+                public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                    IN_FLIGHT.decrementAndGet();
+                }
+            }).addPathPatterns("/voucher-order/seckill*/*").order(-1);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.HmDianPingApplication;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.seckill.SeckillStockManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描述：五种秒杀方案的基准测试
+ *
+ *  0.synchronized + 乐观锁，1.SimpleRedisLock，2.Redisson，3.环形缓冲区异步下单，4.Stream消息队列异步下单
+ *  1.每个fork的进程启动一次Spring（不启动web），连本地的redis和mysql，和其他测试一样。每个trial新建一个秒杀券。
+ *  2.每个用户请求两次：第二次必须失败，用来检查一人一单。
+ *  3.trial结束后等异步下单落库，再检查正确性：订单数 = 成功数 <= 库存，没有重复订单，数据库（和redis）剩余库存对得上。
+ *  4.吞吐量和p99延迟来自jmh，正确性写到check.jsonl，最后合并成一个seckill-{label}.json，不同提交的结果可以直接比较。
+ *
+ *  mvn -P benchmark test-compile exec:exec -Dbenchmark.threads=1,8,32,64 -Dbenchmark.label=提交id
+ *
+ * @author txl
+ * @date 2026-10-20 15:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class SeckillBenchmark {
+
+    private static final String CHECK_FILE = "check.jsonl";
+
+    // 等异步下单落库的最长时间
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000L;
+
+    @Param({"0", "1", "2", "3", "4"})
+    public int strategy;
+
+    /**
+     * 秒杀券的库存：比请求数小时测的是卖完之后的路径，也能检查超卖
+     */
+    @Param({"1000000"})
+    public int stock;
+
+    private ConfigurableApplicationContext context;
+
+    private IVoucherOrderService voucherOrderService;
+
+    private ISeckillVoucherService seckillVoucherService;
+
+    private SeckillStockManager seckillStockManager;
+
+    private Long voucherId;
+
+    private String mode;
+
+    private int threads;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) {
+        mode = params.getMode().shortLabel();
+        threads = params.getThreads();
+        context = new SpringApplicationBuilder(HmDianPingApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("logging.level.com.hmdp=info",
+                        "hmdp.seckill.reconcile.enabled=false",
+                        "hmdp.cache.warmup.enabled=false")
+                .run();
+        voucherOrderService = context.getBean(IVoucherOrderService.class);
+        seckillVoucherService = context.getBean(ISeckillVoucherService.class);
+        seckillStockManager = context.getBean(SeckillStockManager.class);
+
+        // 新建一个进行中的秒杀券：库存同时写到mysql和redis
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("benchmark-" + strategy + "-" + mode + "-" + threads);
+        voucher.setPayValue(100L);
+        voucher.setActualValue(100L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusMinutes(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        context.getBean(IVoucherService.class).addSeckillVoucher(voucher);
+        voucherId = voucher.getId();
+    }
+
+    @Benchmark
+    public Result seckill() {
+        // 每个用户请求两次
+        long n = requests.getAndIncrement();
+        UserDTO user = new UserDTO();
+        user.setId(n / 2 + 1);
+        UserHolder.saveUser(user);
+        try {
+            Result result = order();
+            if (Boolean.TRUE.equals(result.getSuccess())) {
+                succeeded.increment();
+            }
+            return result;
+        } catch (RuntimeException e) {
+            errors.increment();
+            return null;
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    private Result order() {
+        switch (strategy) {
+            case 0:
+                return voucherOrderService.seckillVoucher(voucherId);
+            case 1:
+                return voucherOrderService.seckillVoucher1(voucherId);
+            case 2:
+                return voucherOrderService.seckillVoucher2(voucherId);
+            case 3:
+                return voucherOrderService.seckillVoucher3(voucherId);
+            default:
+                return voucherOrderService.seckillVoucher4(voucherId);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        try {
+            FileUtil.appendUtf8String(check().toString() + "\n", new File(outputDir(), CHECK_FILE));
+        } finally {
+            context.close();
+        }
+    }
+
+    private JSONObject check() throws InterruptedException {
+        long success = succeeded.sum();
+
+        // 1.等异步下单落库
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        long orders = countOrders();
+        while (orders < success && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+            orders = countOrders();
+        }
+
+        // 2.同一个用户的重复订单
+        int duplicates = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("user_id")
+                .eq("voucher_id", voucherId)
+                .groupBy("user_id")
+                .having("COUNT(*) > 1")).size();
+
+        // 3.剩余库存：0~2只扣数据库的库存，3、4先扣redis的库存
+        long dbStock = seckillVoucherService.getById(voucherId).getStock();
+        boolean correct = duplicates == 0 && errors.sum() == 0 && orders == success && orders <= stock
+                && dbStock == stock - orders;
+        JSONObject check = JSONUtil.createObj()
+                .set("strategy", strategy)
+                .set("mode", mode)
+                .set("threads", threads)
+                .set("voucherId", voucherId)
+                .set("requests", requests.get())
+                .set("succeeded", success)
+                .set("errors", errors.sum())
+                .set("orders", orders)
+                .set("duplicates", duplicates)
+                .set("dbStock", dbStock);
+        if (strategy >= 3) {
+            long redisStock = seckillStockManager.remaining(voucherId);
+            check.set("redisStock", redisStock);
+            correct = correct && redisStock == stock - success;
+        }
+        return check.set("correct", correct);
+    }
+
+    private long countOrders() {
+        return voucherOrderService.query().eq("voucher_id", voucherId).count();
+    }
+
+    private static File outputDir() {
+        return new File(System.getProperty("benchmark.output", "target/jmh"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = outputDir();
+        String label = System.getProperty("benchmark.label", "local");
+        FileUtil.mkdir(dir);
+        FileUtil.del(new File(dir, CHECK_FILE));
+
+        // 1.每个线程数跑一轮：jmh的原始结果也留着
+        List<JSONObject> results = new ArrayList<>();
+        for (String t : System.getProperty("benchmark.threads", "1,8,32,64").split(",")) {
+            int threads = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                    .include(SeckillBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .jvmArgsAppend("-Dbenchmark.output=" + dir.getAbsolutePath())
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "raw-" + label + "-t" + threads + ".json").getAbsolutePath())
+                    .build();
+            for (RunResult run : new Runner(options).run()) {
+                org.openjdk.jmh.results.Result<?> primary = run.getPrimaryResult();
+                JSONObject result = JSONUtil.createObj()
+                        .set("strategy", Integer.parseInt(run.getParams().getParam("strategy")))
+                        .set("mode", run.getParams().getMode().shortLabel())
+                        .set("threads", threads)
+                        .set("score", primary.getScore())
+                        .set("unit", primary.getScoreUnit());
+                if (run.getParams().getMode() == Mode.SampleTime) {
+                    result.set("p50", primary.getStatistics().getPercentile(50))
+                            .set("p99", primary.getStatistics().getPercentile(99))
+                            .set("p999", primary.getStatistics().getPercentile(99.9));
+                }
+                results.add(result);
+            }
+        }
+
+        // 2.合并正确性检查：没有检查结果的（trial失败了）算不正确
+        Map<String, JSONObject> checks = new HashMap<>();
+        File checkFile = new File(dir, CHECK_FILE);
+        if (checkFile.exists()) {
+            for (String line : FileUtil.readLines(checkFile, StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    JSONObject check = JSONUtil.parseObj(line);
+                    checks.put(key(check), check);
+                }
+            }
+        }
+        for (JSONObject result : results) {
+            JSONObject check = checks.get(key(result));
+            result.set("correct", check != null && check.getBool("correct", false));
+            result.set("check", check);
+        }
+
+        JSONObject summary = JSONUtil.createObj()
+                .set("label", label)
+                .set("time", LocalDateTime.now().toString())
+                .set("results", results);
+        File out = new File(dir, "seckill-" + label + ".json");
+        FileUtil.writeUtf8String(JSONUtil.toJsonPrettyStr(summary), out);
+        System.out.println("结果已写到 " + out.getAbsolutePath());
+    }
+
+    private static String key(JSONObject json) {
+        return json.getInt("strategy") + ":" + json.getStr("mode") + ":" + json.getInt("threads");
+    }
+}
@@ -0,0 +1,341 @@
+package com.hmdp.utils.cache.codec;
+
+import com.hmdp.config.CacheRebuildProperties;
+import com.hmdp.entity.RedisData;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.cache.CacheInvalidationBus;
+import com.hmdp.utils.cache.CacheRebuildScheduler;
+import com.hmdp.utils.cache.HotKeyDetector;
+import com.hmdp.utils.cache.LocalCacheManager;
+import lombok.Data;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 描述：BinaryCacheCodec和CompatibleCacheCodec的单元测试，不依赖Spring和redis
+ *
+ *  1.zigzag、varint的往返，包括负数和每个字节数的边界，顺便检查编码后的长度。
+ *  2.空值位图：跨字节的位图、全空、全不空。
+ *  3.schema哈希对不上时解码返回null，CacheClient按未命中从数据库加载并用新的schema重写。
+ *  4.兼容格式：JSON格式的旧数据照样能读，不支持的类型写JSON。
+ *  5.float按4字节写。
+ *  6.逻辑过期的data为null。
+ *
+ * @author txl
+ * @date 2026-10-22 11:00
+ */
+class CacheCodecTest {
+
+    // 头部7字节 + 一个字段的空值位图1字节
+    private static final int SINGLE_FIELD_OVERHEAD = 8;
+
+    private final BinaryCacheCodec binary = new BinaryCacheCodec();
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    private final CompatibleCacheCodec compatible = new CompatibleCacheCodec(true);
+
+    @Test
+    void testZigzagRoundTrip() {
+        // 值 -> zigzag变长编码的字节数
+        long[][] cases = {
+                {0L, 1}, {1L, 1}, {-1L, 1}, {63L, 1}, {-64L, 1},
+                {64L, 2}, {-65L, 2}, {8191L, 2}, {-8192L, 2}, {8192L, 3},
+                {Integer.MAX_VALUE, 5}, {Integer.MIN_VALUE, 5},
+                {Long.MAX_VALUE, 10}, {Long.MIN_VALUE, 10}
+        };
+        for (long[] c : cases) {
+            OneLong value = new OneLong();
+            value.setValue(c[0]);
+            byte[] bytes = binary.encode(value);
+            Assertions.assertEquals(SINGLE_FIELD_OVERHEAD + c[1], bytes.length, "value = " + c[0]);
+            Assertions.assertEquals(value, binary.decode(bytes, OneLong.class));
+        }
+        for (int v : new int[]{0, -1, 1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            OneInt value = new OneInt();
+            value.setValue(v);
+            Assertions.assertEquals(value, binary.decode(binary.encode(value), OneInt.class));
+        }
+    }
+
+    @Test
+    void testVarintRoundTrip() {
+        // 字符串长度是varint：127是1个字节，128是2个字节，16384是3个字节
+        int[][] cases = {{0, 1}, {127, 1}, {128, 2}, {16383, 2}, {16384, 3}};
+        for (int[] c : cases) {
+            OneString value = new OneString();
+            value.setValue(repeat('x', c[0]));
+            byte[] bytes = binary.encode(value);
+            Assertions.assertEquals(SINGLE_FIELD_OVERHEAD + c[1] + c[0], bytes.length, "length = " + c[0]);
+            Assertions.assertEquals(value, binary.decode(bytes, OneString.class));
+        }
+
+        // 多字节的UTF-8：长度按字节算
+        OneString chinese = new OneString();
+        chinese.setValue("秒杀券");
+        Assertions.assertEquals(chinese, binary.decode(binary.encode(chinese), OneString.class));
+
+        // 时间：1970年之前的秒数是负数，纳秒用varint
+        for (LocalDateTime time : new LocalDateTime[]{
+                LocalDateTime.of(1900, 1, 1, 0, 0),
+                LocalDateTime.of(1970, 1, 1, 0, 0),
+                LocalDateTime.of(2026, 10, 22, 11, 0, 0, 999_999_999)}) {
+            Sample value = new Sample();
+            value.setCreateTime(time);
+            Assertions.assertEquals(value, binary.decode(binary.encode(value), Sample.class));
+        }
+
+        // 列表的元素个数也是varint
+        List<OneLong> list = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            OneLong value = new OneLong();
+            value.setValue((long) i - 100);
+            list.add(i % 50 == 0 ? null : value);
+        }
+        Assertions.assertEquals(list, binary.decodeList(binary.encodeList(list), OneLong.class));
+        Assertions.assertEquals(Collections.emptyList(),
+                binary.decodeList(binary.encodeList(Collections.emptyList()), OneLong.class));
+    }
+
+    @Test
+    void testNullBitmap() {
+        // Sample有9个字段，位图占2个字节
+        Sample empty = new Sample();
+        byte[] emptyBytes = binary.encode(empty);
+        Assertions.assertEquals(7 + 2, emptyBytes.length);
+        Assertions.assertEquals(empty, binary.decode(emptyBytes, Sample.class));
+
+        Sample full = fullSample();
+        Assertions.assertEquals(full, binary.decode(binary.encode(full), Sample.class));
+
+        // 按字段名排序后下标是0、3、5、7的字段为空：下标7是位图第1个字节的最高位，下标8在第2个字节
+        Sample partial = fullSample();
+        partial.setAmount(null);
+        partial.setEnabled(null);
+        partial.setName(null);
+        partial.setScore(null);
+        Assertions.assertEquals(partial, binary.decode(binary.encode(partial), Sample.class));
+
+        Sample last = new Sample();
+        last.setStock(0);
+        Assertions.assertEquals(last, binary.decode(binary.encode(last), Sample.class));
+    }
+
+    @Test
+    void testFloatFixed32() {
+        for (float f : new float[]{0f, -0f, 1.5f, -1.5f, Float.MIN_VALUE, Float.MAX_VALUE,
+                Float.NEGATIVE_INFINITY, Float.NaN}) {
+            OneFloat value = new OneFloat();
+            value.setValue(f);
+            byte[] bytes = binary.encode(value);
+            Assertions.assertEquals(SINGLE_FIELD_OVERHEAD + 4, bytes.length);
+            Float decoded = binary.decode(bytes, OneFloat.class).getValue();
+            Assertions.assertEquals(Float.floatToIntBits(f), Float.floatToIntBits(decoded), "value = " + f);
+        }
+    }
+
+    @Test
+    void testSchemaHashMismatch() {
+        // 同名的实体类加了字段：schema哈希变了，旧数据解码返回null
+        V1.Item old = new V1.Item();
+        old.setId(1L);
+        old.setName("old");
+        Assertions.assertNull(binary.decode(binary.encode(old), V2.Item.class));
+        Assertions.assertNull(binary.decodeList(binary.encodeList(Collections.singletonList(old)), V2.Item.class));
+        Assertions.assertNull(binary.decodeLogical(binary.encodeLogical(logical(old)), V2.Item.class));
+
+        // 哈希被改坏了也一样
+        byte[] bytes = binary.encode(old);
+        bytes[6] ^= 1;
+        Assertions.assertNull(binary.decode(bytes, V1.Item.class));
+    }
+
+    @Test
+    void testSchemaHashMismatchLoadsFromDb() {
+        String key = "cache:item:1";
+        byte[] stale = compatible.encodeLogical(logical(new V1.Item()));
+
+        @SuppressWarnings("unchecked")
+        RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, byte[]> ops = mock(ValueOperations.class);
+        when(byteRedisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.get(key)).thenReturn(stale);
+        CacheClient cacheClient = new CacheClient(mock(StringRedisTemplate.class), byteRedisTemplate, compatible,
+                mock(LocalCacheManager.class), mock(CacheInvalidationBus.class), mock(CacheRebuildScheduler.class),
+                new CacheRebuildProperties(), mock(HotKeyDetector.class));
+
+        V2.Item fromDb = newItem();
+        AtomicInteger loads = new AtomicInteger();
+        V2.Item result = cacheClient.queryWithLogicExpire("cache:item:", 1L, V2.Item.class, id -> {
+            loads.incrementAndGet();
+            return fromDb;
+        }, 30L, TimeUnit.MINUTES);
+
+        // 按未命中处理：查了一次数据库，并用新的schema重写了缓存
+        Assertions.assertEquals(fromDb, result);
+        Assertions.assertEquals(1, loads.get());
+        ArgumentCaptor<byte[]> written = ArgumentCaptor.forClass(byte[].class);
+        verify(ops).set(eq(key), written.capture());
+        RedisData rewritten = compatible.decodeLogical(written.getValue(), V2.Item.class);
+        Assertions.assertNotNull(rewritten);
+        Assertions.assertEquals(fromDb, rewritten.getData());
+        Assertions.assertTrue(rewritten.getRebuildMillis() >= 1L);
+    }
+
+    @Test
+    void testCompatibleReadsJson() {
+        V2.Item item = newItem();
+
+        // JSON格式的旧数据：对象、列表、逻辑过期都能读
+        Assertions.assertEquals(item, compatible.decode(json.encode(item), V2.Item.class));
+        List<V2.Item> list = Arrays.asList(item, newItem());
+        Assertions.assertEquals(list, compatible.decodeList(json.encodeList(list), V2.Item.class));
+        RedisData redisData = compatible.decodeLogical(json.encodeLogical(logical(item)), V2.Item.class);
+        Assertions.assertEquals(item, redisData.getData());
+        Assertions.assertEquals(Long.valueOf(5L), redisData.getRebuildMillis());
+
+        // 支持的类型写二进制，不支持的（有集合字段）写JSON，都能读回来
+        byte[] bytes = compatible.encode(item);
+        Assertions.assertEquals(BinaryCacheCodec.MAGIC, bytes[0]);
+        Assertions.assertEquals(item, compatible.decode(bytes, V2.Item.class));
+        WithList withList = new WithList();
+        withList.setId(1L);
+        withList.setTags(Arrays.asList("a", "b"));
+        byte[] jsonBytes = compatible.encode(withList);
+        Assertions.assertEquals('{', jsonBytes[0]);
+        Assertions.assertEquals(withList, compatible.decode(jsonBytes, WithList.class));
+
+        // 配置成写JSON时也能读二进制
+        CompatibleCacheCodec preferJson = new CompatibleCacheCodec(false);
+        Assertions.assertEquals('{', preferJson.encode(item)[0]);
+        Assertions.assertEquals(item, preferJson.decode(bytes, V2.Item.class));
+    }
+
+    @Test
+    void testLogicalNullData() {
+        // 数据库中不存在时data为null：二进制和JSON都能写，解码成任何类型都是null
+        for (CacheCodec codec : new CacheCodec[]{binary, json, compatible}) {
+            byte[] bytes = codec.encodeLogical(logical(null));
+            for (Class<?> type : new Class<?>[]{V1.Item.class, V2.Item.class}) {
+                RedisData redisData = compatible.decodeLogical(bytes, type);
+                Assertions.assertNotNull(redisData, codec.getClass().getSimpleName());
+                Assertions.assertNull(redisData.getData());
+                Assertions.assertNotNull(redisData.getExpireTime());
+                Assertions.assertEquals(Long.valueOf(5L), redisData.getRebuildMillis());
+            }
+        }
+        Assertions.assertEquals(BinaryCacheCodec.MAGIC, compatible.encodeLogical(logical(null))[0]);
+    }
+
+    private static RedisData logical(Object data) {
+        RedisData redisData = new RedisData();
+        redisData.setData(data);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisData.setRebuildMillis(5L);
+        return redisData;
+    }
+
+    private static V2.Item newItem() {
+        V2.Item item = new V2.Item();
+        item.setId(1L);
+        item.setName("new");
+        item.setStock(100);
+        return item;
+    }
+
+    private static Sample fullSample() {
+        Sample sample = new Sample();
+        sample.setAmount(-12345678901L);
+        sample.setCount(-7);
+        sample.setCreateTime(LocalDateTime.of(2026, 10, 22, 11, 0, 0, 123_456_789));
+        sample.setEnabled(false);
+        sample.setId(Long.MAX_VALUE);
+        sample.setName("店铺");
+        sample.setPrice(-0.5);
+        sample.setScore(4.5f);
+        sample.setStock(Integer.MIN_VALUE);
+        return sample;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Data
+    public static class OneLong {
+        private Long value;
+    }
+
+    @Data
+    public static class OneInt {
+        private int value;
+    }
+
+    @Data
+    public static class OneString {
+        private String value;
+    }
+
+    @Data
+    public static class OneFloat {
+        private Float value;
+    }
+
+    // 9个字段：amount count createTime enabled id name price score stock
+    @Data
+    public static class Sample {
+        private Long amount;
+        private Integer count;
+        private LocalDateTime createTime;
+        private Boolean enabled;
+        private Long id;
+        private String name;
+        private Double price;
+        private Float score;
+        private Integer stock;
+    }
+
+    @Data
+    public static class WithList {
+        private Long id;
+        private List<String> tags;
+    }
+
+    // 同一个实体类的两个版本：类名一样，V2多了一个字段
+    public static class V1 {
+        @Data
+        public static class Item {
+            private Long id;
+            private String name;
+        }
+    }
+
+    public static class V2 {
+        @Data
+        public static class Item {
+            private Long id;
+            private String name;
+            private Integer stock;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils.seckill;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 描述：OrderRingBuffer的单元测试，不依赖Spring和redis
+ *
+ *  1.多个生产者并发发布，每个订单恰好被消费一次，不丢不重。
+ *  2.publishEmpty的槽位被跳过，不交给handler，前后的订单照常按顺序消费。
+ *  3.占满后tryClaim返回-1，消费者释放槽位后又能占到。
+ *
+ * @author txl
+ * @date 2026-10-22 10:00
+ */
+class OrderRingBufferTest {
+
+    private static final long TIMEOUT_MILLIS = 30000L;
+
+    @Test
+    void testEveryOrderConsumedExactlyOnce() throws InterruptedException {
+        int producers = 8;
+        int ordersPerProducer = 50000;
+        int total = producers * ordersPerProducer;
+        // 容量比订单数小很多：生产者会反复遇到满了的情况
+        OrderRingBuffer ringBuffer = newRingBuffer(1024, 64);
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        AtomicInteger consumed = new AtomicInteger();
+        ringBuffer.start(batch -> {
+            for (VoucherOrder order : batch) {
+                seen.incrementAndGet(order.getId().intValue());
+                consumed.incrementAndGet();
+            }
+        });
+
+        // 每个生产者发布自己那一段订单id，每7个有一个占了槽位但是下单失败
+        AtomicInteger expected = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(producers);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            int from = p * ordersPerProducer;
+            pool.execute(() -> {
+                try {
+                    for (int orderId = from; orderId < from + ordersPerProducer; orderId++) {
+                        long seq;
+                        while ((seq = ringBuffer.tryClaim()) < 0) {
+                            Thread.yield();
+                        }
+                        if (orderId % 7 == 0) {
+                            ringBuffer.publishEmpty(seq);
+                        } else {
+                            ringBuffer.publish(seq, orderId, orderId + 1L, 1L);
+                            expected.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "生产者超时");
+        pool.shutdown();
+        await(() -> ringBuffer.inFlight() == 0);
+
+        Assertions.assertEquals(expected.get(), consumed.get());
+        for (int orderId = 0; orderId < total; orderId++) {
+            Assertions.assertEquals(orderId % 7 == 0 ? 0 : 1, seen.get(orderId), "订单id = " + orderId);
+        }
+    }
+
+    @Test
+    void testEmptySlotsSkipped() throws InterruptedException {
+        OrderRingBuffer ringBuffer = newRingBuffer(16, 16);
+        long first = ringBuffer.tryClaim();
+        long second = ringBuffer.tryClaim();
+        long third = ringBuffer.tryClaim();
+        ringBuffer.publish(first, 1L, 11L, 100L);
+        ringBuffer.publishEmpty(second);
+        ringBuffer.publish(third, 3L, 13L, 100L);
+
+        List<VoucherOrder> received = Collections.synchronizedList(new ArrayList<>());
+        ringBuffer.start(received::addAll);
+        await(() -> ringBuffer.inFlight() == 0);
+
+        Assertions.assertEquals(2, received.size());
+        Assertions.assertEquals(1L, received.get(0).getId().longValue());
+        Assertions.assertEquals(11L, received.get(0).getUserId().longValue());
+        Assertions.assertEquals(3L, received.get(1).getId().longValue());
+        Assertions.assertEquals(1L, ringBuffer.stats().get("skipped"));
+    }
+
+    @Test
+    void testClaimRejectedWhenFullAndReusedAfterConsumed() throws InterruptedException {
+        OrderRingBuffer ringBuffer = newRingBuffer(4, 4);
+        long[] seqs = new long[4];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = ringBuffer.tryClaim();
+            Assertions.assertEquals(i, seqs[i]);
+        }
+        // 满了：还没有消费者
+        Assertions.assertEquals(-1L, ringBuffer.tryClaim());
+        Assertions.assertEquals(1L, ringBuffer.stats().get("rejected"));
+
+        for (long seq : seqs) {
+            ringBuffer.publish(seq, seq, seq, 1L);
+        }
+        AtomicInteger consumed = new AtomicInteger();
+        ringBuffer.start(batch -> consumed.addAndGet(batch.size()));
+        await(() -> consumed.get() == seqs.length);
+
+        // 槽位释放了：接着从序号4开始占，下标回到0
+        Assertions.assertEquals(4L, ringBuffer.tryClaim());
+    }
+
+    private static OrderRingBuffer newRingBuffer(int capacity, int batchSize) {
+        SeckillProperties properties = new SeckillProperties();
+        properties.getRingBuffer().setCapacity(capacity);
+        properties.getRingBuffer().setBatchSize(batchSize);
+        return new OrderRingBuffer(properties);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "等待消费者超时");
+            Thread.sleep(1L);
+        }
+    }
+}